@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import net.brlns.livecaptions.capture.SyntheticFrameSource;
+
+/**
+ * Caption frames and OCR output shared by the benchmarks.
+ *
+ * Frames are rendered by the synthetic source so runs are reproducible
+ * and don't need a desktop.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class BenchmarkFixtures {
+
+    public static final List<String> SCRIPT = List.of(
+        "Welcome everyone and thank you for joining us today",
+        "we are going to talk about the quarterly results",
+        "revenue grew by twelve percent compared to last year",
+        "most of that growth came from our international markets",
+        "before we dive into the numbers let me introduce the team",
+        "please hold your questions until the end of the session"
+    );
+
+    /**
+     * The size of a typical two line caption box.
+     */
+    public static final int WIDTH = 1200;
+    public static final int HEIGHT = 110;
+
+    /**
+     * Renders every frame of the script, one per word update.
+     */
+    public static List<BufferedImage> frames() {
+        List<BufferedImage> frames = new ArrayList<>();
+
+        forEachFrame(SCRIPT, (source, frame) -> frames.add(frame));
+
+        return frames;
+    }
+
+    /**
+     * The text OCR would return for every frame of the script, as read by a perfect engine.
+     */
+    public static List<String> ocrTexts() {
+        List<String> texts = new ArrayList<>();
+
+        forEachFrame(SCRIPT, (source, frame) -> texts.add(source.getVisibleText()));
+
+        return texts;
+    }
+
+    private static void forEachFrame(List<String> script, FrameConsumer consumer) {
+        SyntheticFrameSource source = new SyntheticFrameSource(script, WIDTH, HEIGHT, 28, 2, 2, 1, 0);
+
+        while (!source.isExhausted()) {
+            BufferedImage frame = source.nextFrame();
+
+            if (frame != null) {
+                consumer.accept(source, frame);
+            }
+        }
+    }
+
+    private interface FrameConsumer {
+
+        void accept(SyntheticFrameSource source, BufferedImage frame);
+    }
+}
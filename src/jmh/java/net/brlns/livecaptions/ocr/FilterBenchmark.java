@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.ocr;
+
+import java.awt.Graphics;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.brlns.livecaptions.BenchmarkFixtures;
+import net.sourceforge.tess4j.util.ImageIOHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Turns a captured frame into the pixels Tesseract reads.
+ *
+ * The legacy benchmark is the ColorConvertOp based filterWhite this
+ * filter replaced, followed by tess4j's own conversion to a byte buffer,
+ * so both benchmarks end with the same thing: a buffer ready for SetImage.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilterBenchmark {
+
+    @Param({"true", "false"})
+    public boolean contrastMode;
+
+    private final WhiteTextFilter filter = new WhiteTextFilter();
+
+    private List<BufferedImage> frames;
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        frames = BenchmarkFixtures.frames();
+    }
+
+    @Benchmark
+    public GrayFrame filter() {
+        return filter.filter(nextFrame(), contrastMode);
+    }
+
+    @Benchmark
+    public ByteBuffer legacyFilterWhite() {
+        return ImageIOHelper.getImageByteBuffer(legacyFilterWhite(nextFrame(), contrastMode));
+    }
+
+    private BufferedImage nextFrame() {
+        BufferedImage frame = frames.get(index);
+        index = (index + 1) % frames.size();
+
+        return frame;
+    }
+
+    /**
+     * filterWhite as it was before the single pass filter.
+     */
+    private static BufferedImage legacyFilterWhite(BufferedImage image, boolean contrastMode) {
+        if (contrastMode) {
+            BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics g = result.getGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+
+            ColorConvertOp colorConvert = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
+            colorConvert.filter(result, result);
+
+            int threshold = 180;
+            int[] pixels = result.getRGB(0, 0, result.getWidth(), result.getHeight(), null, 0, result.getWidth());
+            for (int i = 0; i < pixels.length; i++) {
+                int alpha = (pixels[i] >> 24) & 0xFF;
+                int red = (pixels[i] >> 16) & 0xFF;
+                int green = (pixels[i] >> 8) & 0xFF;
+                int blue = pixels[i] & 0xFF;
+
+                int gray = (red + green + blue) / 3;
+                int color = (gray < threshold) ? 0x000000 : 0xFFFFFF;
+
+                pixels[i] = (alpha << 24) | color;
+            }
+
+            result.setRGB(0, 0, result.getWidth(), result.getHeight(), pixels, 0, result.getWidth());
+            return result;
+        } else {
+            return image;
+        }
+    }
+}
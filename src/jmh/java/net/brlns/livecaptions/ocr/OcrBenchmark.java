@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.ocr;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.brlns.livecaptions.BenchmarkFixtures;
+import net.sourceforge.tess4j.TesseractException;
+import net.sourceforge.tess4j.util.LoadLibs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Filter plus OCR of a caption frame, the bulk of the work done per changed frame.
+ *
+ * Requires the native Tesseract library, the bundled English data is used.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OcrBenchmark {
+
+    @Param({"true", "false"})
+    public boolean contrastMode;
+
+    private final WhiteTextFilter filter = new WhiteTextFilter();
+    private final BandedRecognizer bandedRecognizer = new BandedRecognizer();
+
+    private TesseractEngine engine;
+
+    private List<BufferedImage> frames;
+    private int index = 0;
+    private long sequence = 0;
+
+    @Setup
+    public void setUp() throws TesseractException {
+        File tessDataFolder = LoadLibs.extractTessResources("tessdata");
+
+        engine = new TesseractEngine(tessDataFolder.getAbsolutePath(), "eng");
+        frames = BenchmarkFixtures.frames();
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.dispose();
+    }
+
+    @Benchmark
+    public String fullFrame() throws TesseractException {
+        return engine.recognize(filter.filter(nextFrame(), contrastMode));
+    }
+
+    /**
+     * Consecutive frames share lines, so this measures the incremental OCR savings as well.
+     */
+    @Benchmark
+    public String banded() throws TesseractException {
+        return bandedRecognizer.recognize(engine, filter.filter(nextFrame(), contrastMode), sequence++);
+    }
+
+    private BufferedImage nextFrame() {
+        BufferedImage frame = frames.get(index);
+        index = (index + 1) % frames.size();
+
+        return frame;
+    }
+}
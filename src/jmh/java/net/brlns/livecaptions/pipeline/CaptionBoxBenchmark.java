@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+import java.awt.AWTException;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import net.brlns.livecaptions.BenchmarkFixtures;
+import net.brlns.livecaptions.CaptureRegion;
+import net.brlns.livecaptions.Settings;
+import net.brlns.livecaptions.capture.CapturePlanner;
+import net.brlns.livecaptions.capture.CornerProbingSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The corner check that runs on every captured frame, and what the corner
+ * probe costs compared to the full capture it saves while the captions are away.
+ *
+ * The fixture grabber copies pixels out of a rendered caption box, so runs do
+ * not need a desktop. Pass -p grabber=robot on a desktop to measure real
+ * screen captures of the top left corner of the screen.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CaptionBoxBenchmark {
+
+    @Param({"fixture"})
+    public String grabber;
+
+    private CaptionPipeline pipeline;
+    private BufferedImage frame;
+
+    private int threshold;
+
+    // Probed while the caption box is on screen, and while an empty desktop is
+    private CornerProbingSource boxSource;
+    private CornerProbingSource desktopSource;
+
+    @Setup
+    public void setUp() throws AWTException {
+        Settings settings = new Settings();
+
+        pipeline = new CaptionPipeline(() -> settings, new CaptureRegion("Main"), null, List.of(), null, null);
+        frame = BenchmarkFixtures.frames().get(0);
+        threshold = settings.getCaptionWindowColorThreshold();
+
+        BufferedImage desktop = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = desktop.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, desktop.getWidth(), desktop.getHeight());
+        graphics.dispose();
+
+        Function<Rectangle, BufferedImage> boxGrabber;
+        Function<Rectangle, BufferedImage> desktopGrabber;
+
+        if (grabber.equals("robot")) {
+            Robot robot = new Robot();
+
+            boxGrabber = robot::createScreenCapture;
+            desktopGrabber = robot::createScreenCapture;
+        } else {
+            boxGrabber = fixtureGrabber(frame);
+            desktopGrabber = fixtureGrabber(desktop);
+        }
+
+        Rectangle zone = new Rectangle(0, 0, frame.getWidth(), frame.getHeight());
+
+        boxSource = new CapturePlanner(boxGrabber).createSource(() -> zone);
+        desktopSource = new CapturePlanner(desktopGrabber).createSource(() -> zone);
+    }
+
+    @Benchmark
+    public boolean inCaptionBox() {
+        return pipeline.inCaptionBox(frame);
+    }
+
+    /**
+     * Every corner matches, both rows are captured.
+     */
+    @Benchmark
+    public boolean probeBoxShown() throws Exception {
+        return probe(boxSource);
+    }
+
+    /**
+     * The first corner does not match, a single row is captured.
+     */
+    @Benchmark
+    public boolean probeBoxAway() throws Exception {
+        return probe(desktopSource);
+    }
+
+    /**
+     * What the probe saves while the captions are away.
+     */
+    @Benchmark
+    public boolean fullCapture() throws Exception {
+        return pipeline.inCaptionBox(desktopSource.nextFrame());
+    }
+
+    private boolean probe(CornerProbingSource source) throws Exception {
+        for (int corner = 0; corner < 4; corner++) {
+            int colour = source.probeCorner(corner);
+
+            if (((colour >> 16) & 0xFF) > threshold || ((colour >> 8) & 0xFF) > threshold || (colour & 0xFF) > threshold) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the area out of the image, like a screen capture copies it out of the screen.
+     */
+    private static Function<Rectangle, BufferedImage> fixtureGrabber(BufferedImage screen) {
+        return (area) -> {
+            BufferedImage capture = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+
+            Graphics2D graphics = capture.createGraphics();
+            graphics.drawImage(screen, -area.x, -area.y, null);
+            graphics.dispose();
+
+            return capture;
+        };
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.brlns.livecaptions.BenchmarkFixtures;
+import net.brlns.livecaptions.CaptureRegion;
+import net.brlns.livecaptions.Settings;
+import org.apache.commons.text.similarity.JaroWinklerDistance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Merges OCR output with the previous lines, one operation is one OCR result.
+ *
+ * The legacy benchmark is the JaroWinkler scan over the previous lines the
+ * caption stabilizer replaced.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LineMergeBenchmark {
+
+    private CaptionPipeline pipeline;
+    private List<String> texts;
+    private int index = 0;
+
+    private final JaroWinklerDistance jaroWinklerDistance = new JaroWinklerDistance();
+    private final List<String> lastLines = new ArrayList<>();
+    private String lastPrintedLine;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackholeIn) {
+        blackhole = blackholeIn;
+
+        Settings settings = new Settings();
+
+        pipeline = new CaptionPipeline(() -> settings, new CaptureRegion("Main"), null, List.of(), new TranscriptSink() {
+            @Override
+            public void writeLine(String line) {
+                blackholeIn.consume(line);
+            }
+
+            @Override
+            public void endSession() {
+                // Nothing
+            }
+        }, null);
+
+        texts = BenchmarkFixtures.ocrTexts();
+    }
+
+    @Benchmark
+    public void processOcrText() {
+        pipeline.processOcrText(texts.get(index));
+
+        index = (index + 1) % texts.size();
+    }
+
+    @Benchmark
+    public void legacyProcessOcrText() {
+        String[] lines = texts.get(index).split("\\n");
+
+        index = (index + 1) % texts.size();
+
+        for (String line : lines) {
+            boolean contains = false;
+            for (String oldLine : lastLines) {
+                double distance = jaroWinklerDistance.apply(oldLine, line);
+
+                if (distance <= 0.20 || oldLine.contains(line)) {
+                    contains = true;
+                }
+            }
+
+            if (!contains && !lastLines.isEmpty()) {
+                String oldestEntry = lastLines.remove(0);
+
+                double distance = jaroWinklerDistance.apply(oldestEntry,
+                    lastPrintedLine != null ? lastPrintedLine : "");
+
+                if (distance > 0.20) {
+                    lastPrintedLine = oldestEntry;
+                    blackhole.consume(oldestEntry);
+                }
+            }
+        }
+
+        lastLines.clear();
+        lastLines.addAll(Arrays.asList(lines));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.transcript;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import net.brlns.livecaptions.BenchmarkFixtures;
+import net.brlns.livecaptions.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Appends a finished line to the transcript file.
+ *
+ * The legacy benchmark opens, appends and closes the file per line, the way
+ * logToFile did before the transcript writer.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TranscriptWriteBenchmark {
+
+    private static final String LINE = BenchmarkFixtures.SCRIPT.get(0);
+
+    private File file;
+    private TranscriptWriter writer;
+
+    @Setup
+    public void setUp() throws IOException {
+        Settings settings = new Settings();
+
+        file = File.createTempFile("transcript", ".txt");
+        writer = new TranscriptWriter(() -> settings, () -> file, Throwable::printStackTrace);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.close();
+
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public void writeLine() {
+        writer.writeLine(LINE);
+    }
+
+    @Benchmark
+    public void legacyAppendLine() throws IOException {
+        try (FileWriter fw = new FileWriter(file, true);
+             PrintWriter pw = new PrintWriter(fw)) {
+            pw.println(LINE);
+        }
+    }
+}
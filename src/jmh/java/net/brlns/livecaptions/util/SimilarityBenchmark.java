@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.brlns.livecaptions.BenchmarkFixtures;
+import org.apache.commons.text.similarity.JaroWinklerDistance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares caption line pairs the way line deduplication does.
+ *
+ * The pairs are what the stabilizer runs into: a line against a misread
+ * copy of itself, a line against the same line with more words, and a line
+ * against the next one.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SimilarityBenchmark {
+
+    private static final double MAX_DISTANCE = 0.20;
+
+    private final JaroWinklerDistance jaroWinklerDistance = new JaroWinklerDistance();
+
+    private final List<String[]> pairs = new ArrayList<>();
+    private int index = 0;
+
+    @Setup
+    public void setUp() {
+        List<String> script = BenchmarkFixtures.SCRIPT;
+
+        for (int i = 0; i < script.size(); i++) {
+            String line = script.get(i);
+
+            pairs.add(new String[]{line, line.replace('e', 'c').replace("l", "I")});
+            pairs.add(new String[]{line.substring(0, line.length() * 2 / 3), line});
+            pairs.add(new String[]{line, script.get((i + 1) % script.size())});
+        }
+    }
+
+    @Benchmark
+    public boolean commonsText() {
+        String[] pair = nextPair();
+
+        return jaroWinklerDistance.apply(pair[0], pair[1]) <= MAX_DISTANCE;
+    }
+
+    @Benchmark
+    public boolean distance() {
+        String[] pair = nextPair();
+
+        return JaroWinkler.distance(pair[0], pair[1]) <= MAX_DISTANCE;
+    }
+
+    @Benchmark
+    public boolean isWithin() {
+        String[] pair = nextPair();
+
+        return JaroWinkler.isWithin(pair[0], pair[1], MAX_DISTANCE);
+    }
+
+    private String[] nextPair() {
+        String[] pair = pairs.get(index);
+        index = (index + 1) % pairs.size();
+
+        return pair;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * An additional screen area to log captions from, e.g. a browser's subtitles
+ * or a second monitor, next to the main capture area.
+ *
+ * Every region gets its own transcript file. The filter settings left out
+ * are taken from the main settings.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CaptureRegion {
+
+    /**
+     * Shows up in the transcript file names and in the logs, must be unique and not "Main".
+     * Regions with a clashing name or an empty area are skipped at startup.
+     */
+    @JsonProperty("Name")
+    private String name = "Region";
+
+    @JsonProperty("Enabled")
+    private boolean enabled = true;
+
+    /**
+     * Screen coordinates, same as the main PixelStartX/Y and PixelEndX/Y.
+     */
+    @JsonProperty("PixelStartX")
+    private int boxStartX = 0;
+    @JsonProperty("PixelStartY")
+    private int boxStartY = 0;
+
+    @JsonProperty("PixelEndX")
+    private int boxEndX = 0;
+    @JsonProperty("PixelEndY")
+    private int boxEndY = 0;
+
+    @Nullable
+    @JsonProperty("ContrastMode")
+    private Boolean contrastMode = null;
+
+    @Nullable
+    @JsonProperty("CaptureAnyText")
+    private Boolean captureAnyText = null;
+
+    @Nullable
+    @JsonProperty("CaptionWindowDetectColorThreshold")
+    private Integer captionWindowColorThreshold = null;
+
+    public CaptureRegion(String nameIn) {
+        name = nameIn;
+    }
+
+    public boolean isContrastMode(Settings settings) {
+        return contrastMode != null ? contrastMode : settings.isContrastMode();
+    }
+
+    public boolean isCaptureAnyText(Settings settings) {
+        return captureAnyText != null ? captureAnyText : settings.isCaptureAnyText();
+    }
+
+    public int getCaptionWindowColorThreshold(Settings settings) {
+        return captionWindowColorThreshold != null ? captionWindowColorThreshold : settings.getCaptionWindowColorThreshold();
+    }
+}
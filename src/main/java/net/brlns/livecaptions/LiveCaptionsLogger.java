@@ -19,25 +19,21 @@ package net.brlns.livecaptions;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.awt.*;
-import java.awt.color.ColorSpace;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.geom.AffineTransform;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorConvertOp;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -45,19 +41,32 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
-import javax.imageio.ImageIO;
+import java.util.function.Supplier;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.UIManager;
 import javax.swing.filechooser.FileSystemView;
 import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.capture.CapturePlanner;
+import net.brlns.livecaptions.capture.FrameRecorder;
+import net.brlns.livecaptions.debug.DebugFrameRecorder;
+import net.brlns.livecaptions.metrics.LatencyHistogram;
+import net.brlns.livecaptions.metrics.MetricsExporter;
+import net.brlns.livecaptions.metrics.MetricsRegistry;
+import net.brlns.livecaptions.metrics.MetricsServer;
+import net.brlns.livecaptions.ocr.OcrWorker;
+import net.brlns.livecaptions.ocr.TesseractEnginePool;
+import net.brlns.livecaptions.pipeline.CaptionPipeline;
+import net.brlns.livecaptions.pipeline.CaptureRateController;
+import net.brlns.livecaptions.pipeline.TickResult;
+import net.brlns.livecaptions.process.ProcessWatcher;
+import net.brlns.livecaptions.trace.FrameTrace;
+import net.brlns.livecaptions.transcript.AsyncTranscriptSink;
+import net.brlns.livecaptions.transcript.TranscriptWriter;
+import net.brlns.livecaptions.util.BlockingTasks;
 import net.brlns.livecaptions.util.LoggerUtils;
 import net.brlns.livecaptions.util.Nullable;
-import net.sourceforge.tess4j.Tesseract;
-import net.sourceforge.tess4j.TesseractException;
 import net.sourceforge.tess4j.util.LoadLibs;
-import org.apache.commons.text.similarity.JaroWinklerDistance;
 
 /**
  * LiveCaptionsLogger
@@ -72,19 +81,45 @@ public class LiveCaptionsLogger {
      */
     private static final String REGISTRY_APP_NAME = "LiveCaptionsLogger";// Don't change
 
-    private static final SimpleDateFormat FORMATTER = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
 
-    private final ReentrantLock tesseractLock = new ReentrantLock();
+    /**
+     * The capture area configured through the tray menu, additional regions come from the config file.
+     */
+    private static final String MAIN_REGION = "Main";
+
+    /**
+     * How long LiveCaptions has to be gone before sensing turns logging off, it takes a while to start up or wind down.
+     */
+    private static final long SENSING_GRACE_MS = 20000;
+
+    /**
+     * How many frame trace records are kept, a few minutes of frames.
+     */
+    private static final int FRAME_TRACE_RECORDS = 16384;
+
+    /**
+     * The state kept for every capture region.
+     */
+    private static class RegionCapture {
+
+        private final CaptureRegion region;
+
+        private volatile Rectangle screenZone;
 
-    private File currentFile;
-    private String lastPrintedLine;
-    private final List<String> lastLines = new ArrayList<>();
+        private CaptionPipeline pipeline;
+        private TranscriptWriter transcriptWriter;
+        private AsyncTranscriptSink transcriptQueue;
+        private FrameRecorder frameRecorder;
+
+        private RegionCapture(CaptureRegion regionIn) {
+            region = regionIn;
+        }
+    }
 
     private final SystemTray tray;
     private TrayIcon trayIcon = null;
 
-    private Rectangle screenZone;
-
     private File configFile;
     private Settings config;
 
@@ -92,9 +127,33 @@ public class LiveCaptionsLogger {
 
     private ScreenSnipper snipper = null;
 
+    private final TesseractEnginePool enginePool;
+    private final ExecutorService blockingTasks;
+    private final List<OcrWorker> ocrWorkers = new ArrayList<>();
+    private File tessDataFolder;
+    private String tessDataSource;
+
+    private final List<RegionCapture> regionCaptures = new ArrayList<>();
+    @Nullable
+    private CapturePlanner capturePlanner = null;
+
+    private final CaptureRateController captureRate = new CaptureRateController(() -> config);
+
     private final AtomicInteger currentTick = new AtomicInteger(0);
     private final AtomicBoolean liveCaptionsRunning = new AtomicBoolean(true);
-    private int ticksSinceLastRunning = 0;
+    private long lastSeenRunningMs = System.currentTimeMillis();
+    private final ProcessWatcher liveCaptionsWatcher;
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LatencyHistogram tickTime = new LatencyHistogram();
+    @Nullable
+    private MetricsExporter metricsExporter = null;
+    @Nullable
+    private MetricsServer metricsServer = null;
+
+    // Records what happens to every frame while debug mode is on
+    private final FrameTrace frameTrace = new FrameTrace(FRAME_TRACE_RECORDS);
+    private final DebugFrameRecorder debugFrameRecorder;
 
     @SuppressWarnings("this-escape") // TODO: properly deal with this, the issue lies in openSnipper()
     public LiveCaptionsLogger() {
@@ -133,6 +192,70 @@ public class LiveCaptionsLogger {
 
         log.info("Loaded config file");
 
+        frameTrace.setEnabled(config.isFrameTrace());
+
+        // Debug images are encoded on their own thread, away from capture and OCR
+        debugFrameRecorder = new DebugFrameRecorder(() -> config, this::getOrCreateOutputDirectory,
+            (e) -> handleException(e, false));
+
+        // Regions are spread over the OCR workers, with OcrConcurrency above 1 a region's frames are spread over several workers
+        List<CaptureRegion> regions = new ArrayList<>();
+        regions.add(new CaptureRegion(MAIN_REGION));
+
+        Set<String> fileNameTags = new HashSet<>();
+        fileNameTags.add(getFileNameTag(regions.get(0)).toLowerCase());
+
+        for (CaptureRegion region : config.getAdditionalCaptureRegions()) {
+            if (!region.isEnabled()) {
+                continue;
+            }
+
+            if (region.getBoxEndX() <= region.getBoxStartX() || region.getBoxEndY() <= region.getBoxStartY()) {
+                log.warn("Skipping capture region {}, its area is empty", region.getName());
+                continue;
+            }
+
+            // Regions are told apart by name, in the settings and in the file names
+            if (region.getName() == null || region.getName().isBlank()
+                || region.getName().equalsIgnoreCase(MAIN_REGION)
+                || !fileNameTags.add(getFileNameTag(region).toLowerCase())) {
+                log.warn("Skipping capture region {}, its name is reserved or already taken", region.getName());
+                continue;
+            }
+
+            regions.add(region);
+        }
+
+        // Process checks and registry calls block, they get their own threads, virtual ones on Java 21+
+        blockingTasks = BlockingTasks.newExecutor("Blocking-Task", config.isVirtualThreads());
+
+        log.info("Blocking tasks run on {} threads", config.isVirtualThreads()
+            && BlockingTasks.isVirtualThreadsSupported() ? "virtual" : "platform");
+
+        liveCaptionsWatcher = new ProcessWatcher(() -> config.getLiveCaptionsProcessName(),
+            blockingTasks, (e) -> handleException(e, false));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int concurrency = Math.min(clamp(config.getOcrConcurrency(), 1, 16), cores);
+        int workerCount = Math.max(1, Math.min(cores, Math.max(regions.size(), concurrency)));
+
+        enginePool = new TesseractEnginePool(workerCount + 1);
+
+        for (int i = 0; i < workerCount; i++) {
+            OcrWorker ocrWorker = new OcrWorker("OCR-Worker-" + (i + 1), enginePool, 1, (e) -> handleException(e, false));
+            ocrWorker.registerMetrics(metrics);
+
+            ocrWorkers.add(ocrWorker);
+        }
+
+        metrics.histogram("livecaptions_tick_duration", "Time spent in a capture loop tick", tickTime);
+        metrics.gauge("livecaptions_capture_interval_ms", "Current time between ticks",
+            captureRate::getIntervalMs);
+        metrics.gauge("livecaptions_livecaptions_running", "Whether LiveCaptions is believed to be running",
+            () -> liveCaptionsRunning.get() ? 1 : 0);
+        metrics.gauge("livecaptions_currently_logging", "Whether logging is on",
+            () -> config.isCurrentlyLogging() ? 1 : 0);
+
         tray = SystemTray.getSystemTray();
 
         try {
@@ -153,30 +276,53 @@ public class LiveCaptionsLogger {
 
             tray.add(trayIcon);
 
+            // Initialize the capture tool for Tesseract, regions close to each other are captured together
+            Robot robot = new Robot();
+            capturePlanner = new CapturePlanner(robot::createScreenCapture);
+
+            for (int i = 0; i < regions.size(); i++) {
+                List<OcrWorker> regionWorkers = new ArrayList<>();
+
+                for (int j = 0; j < concurrency; j++) {
+                    regionWorkers.add(ocrWorkers.get((i + j) % workerCount));
+                }
+
+                regionCaptures.add(createRegionCapture(regions.get(i), capturePlanner, regionWorkers));
+            }
+
             // Initialize the capture area bounds
             updateScreenZone();
 
-            // Initialize the capture tool for Tesseract
-            Robot robot = new Robot();
-
             // Initialize Tesseract
-            File tessDataFolder;
-            if (config.getCustomTessDataPath().isEmpty()) {
-                tessDataFolder = LoadLibs.extractTessResources("tessdata");
-            } else {
-                tessDataFolder = new File(config.getCustomTessDataPath());
-            }
+            updateTesseractConfig();
+            enginePool.warmUp();
 
-            if (!tessDataFolder.exists()) {
-                throw new RuntimeException("tessdata folder not found!");
-            }
+            updateOcrDeadline();
 
             log.debug("Tesseract initialized");
 
-            // Initialize the string comparison tool
-            JaroWinklerDistance jaroWinklerDistance = new JaroWinklerDistance();
+            if (config.isMetricsExport()) {
+                File metricsFile = new File(workDir, "metrics_" + FORMATTER.format(LocalDateTime.now()) + ".csv");
+
+                metricsExporter = new MetricsExporter(metrics, metricsFile,
+                    clamp(config.getMetricsExportIntervalMs(), 1000, 3600000), (e) -> handleException(e, false));
+
+                log.info("Exporting metrics to {}", metricsFile);
+            }
+
+            if (config.isMetricsEndpoint()) {
+                // A taken port should not keep us from logging
+                try {
+                    metricsServer = new MetricsServer(metrics, clamp(config.getMetricsEndpointPort(), 1024, 65535),
+                        (e) -> handleException(e, false));
+
+                    log.info("Serving metrics on http://localhost:{}/metrics", metricsServer.getPort());
+                } catch (IOException e) {
+                    handleException(e, false);
+                }
+            }
 
-            Runnable captureAndProcess = () -> {
+            Supplier<TickResult> captureAndProcess = () -> {
                 int tick = currentTick.incrementAndGet();
 
                 if (config.isDebugMode()) {
@@ -188,171 +334,99 @@ public class LiveCaptionsLogger {
                         log.debug("Logging is off");
                     }
 
-                    return;
+                    return TickResult.NO_FRAME;
                 }
 
-                if (isWindows() && config.isLiveCaptionsSensing()) {
+                // Not gated on isWindows(), sensing is off by default and only the Windows tray offers the toggle,
+                // elsewhere it has to be enabled in the settings file along with another LiveCaptionsProcessName
+                if (config.isLiveCaptionsSensing()) {
                     // We would check if CaptureAnyText is off before running this. However, until we have mouse tooltips to explain why this setting conflicts with the other, this should do.
-                    if (tick % 5 == 0) {// Lets not call isLiveCaptionsRunning() every second, 5 should be fine.
-                        long timeNow = System.currentTimeMillis();
-
-                        // This method can be expensive depending on the system, so lets offload it to another thread
-                        CompletableFuture<Boolean> isRunningTask = CompletableFuture.supplyAsync(this::isLiveCaptionsRunning);
-
-                        isRunningTask.thenAcceptAsync((isRunning) -> {
-                            if (config.isDebugMode()) {
-                                log.debug("Took " + (System.currentTimeMillis() - timeNow) + "ms. running: " + isRunning);
-                            }
-
-                            if (isRunning) {
-                                liveCaptionsRunning.set(true);
-                                ticksSinceLastRunning = 0;
-                            } else {
-                                if (++ticksSinceLastRunning == 4) { // ~20 seconds of inactivity, varies based on the set tick rate
-                                    liveCaptionsRunning.set(false);
-                                    closeLogger();
-                                }
-                            }
-                        }).exceptionally((e) -> {
-                            handleException(e);
-                            return null;
-                        });
+                    // The watcher only scans the process list until it finds LiveCaptions, the scans run on another thread
+                    long timeNow = System.currentTimeMillis();
+
+                    if (liveCaptionsWatcher.isRunning()) {
+                        lastSeenRunningMs = timeNow;
+                        liveCaptionsRunning.set(true);
+                    } else if (timeNow - lastSeenRunningMs >= SENSING_GRACE_MS && liveCaptionsRunning.getAndSet(false)) {
+                        closeLogger();
                     }
 
                     // This is not exactly mission-critical, LiveCaptions takes time to start up or wind down.
-                    // If the async future takes too long, it's acceptable for this to be updated around the next tick.
                     if (!liveCaptionsRunning.get()) {
                         if (config.isDebugMode()) {
                             log.debug("Sensed that LiveCaptions is not running, logging is off");
                         }
 
-                        return;
+                        return TickResult.NO_FRAME;
                     }
                 }
 
-                BufferedImage screenshot = robot.createScreenCapture(screenZone);
-
-                if (config.isDebugMode() && tick % 10 == 0) {
-                    try {
-                        log.debug("Captured at " + screenZone);
+                try {
+                    updateTesseractConfig();
+                } catch (RuntimeException e) {
+                    handleException(e, false);
+                    return TickResult.NO_FRAME;
+                }
 
-                        saveDebugImage(screenshot, "cc_debug.png");
+                // All regions share this schedule, their OCR runs on the workers
+                TickResult result = TickResult.NO_FRAME;
 
-                        log.debug("Saved debug image");
-                    } catch (IOException e) {
-                        handleException(e);
+                for (RegionCapture regionCapture : regionCaptures) {
+                    // A failing region must not hold up the others
+                    try {
+                        result = result.combine(regionCapture.pipeline.tick());
+                    } catch (RuntimeException e) {
+                        handleException(e, false);
                     }
                 }
 
-                if (!inCaptionBox(screenshot)) {
-                    if (config.isDebugMode()) {
-                        log.debug("CC Window not detected");
+                if (config.isDebugMode() && tick % 60 == 0) {
+                    log.debug("Screen capture: " + capturePlanner.getStatsSummary());
+                    log.debug("Capture rate: " + captureRate.getStatsSummary());
+                    log.debug("LiveCaptions sensing: " + liveCaptionsWatcher.getStatsSummary());
+                    log.debug("OCR stats: " + enginePool.getStatsSummary());
+                    log.debug("Debug frames: " + debugFrameRecorder.getStatsSummary());
+
+                    for (OcrWorker ocrWorker : ocrWorkers) {
+                        log.debug("OCR worker: " + ocrWorker.getStatsSummary());
                     }
 
-                    closeLogger();
-                    return;
+                    for (RegionCapture regionCapture : regionCaptures) {
+                        log.debug("Pipeline: " + regionCapture.pipeline.getStatsSummary());
+                        log.debug("Transcript queue: " + regionCapture.transcriptQueue.getStatsSummary());
+                        log.debug("Transcript: " + regionCapture.transcriptWriter.getStatsSummary());
+                    }
                 }
 
-                BufferedImage filteredImage = filterWhite(screenshot);
+                return result;
+            };
+
+            // Schedule the main program loop, we do not rely on the main thread here.
+            // Every tick schedules the next one, the capture rate adapts to what the last tick saw.
+            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+
+            Runnable loop = new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    TickResult result = TickResult.NO_FRAME;
 
-                if (tesseractLock.tryLock()) {
                     try {
-                        // This needs a more elegant solution, Tesseract keeps hanging with random images
-                        ExecutorService executorService = Executors.newSingleThreadExecutor();
-
-                        executorService.execute(() -> {
-                            try {
-                                Tesseract tesseract = new Tesseract();
-
-                                tesseract.setDatapath(tessDataFolder.getAbsolutePath());
-                                tesseract.setLanguage(config.getTessLanguage());
-
-                                // Start the OCR process
-                                String text = tesseract.doOCR(filteredImage);
-
-                                text = text.replace("|", "I"); // This one is particularly common
-
-                                if (text.contains("(") || text.contains(")")) {// Not sure if these actually ever show up in closed captions?
-                                    return;
-                                }
-
-                                if (config.isDebugMode()) {
-                                    log.debug("OCR Saw: " + text);
-                                }
-
-                                // Process the results
-                                String[] lines = text.split("\\n");
-
-                                synchronized (lastLines) {
-                                    for (String line : lines) {
-                                        boolean contains = false;
-                                        for (String oldLine : lastLines) {
-                                            // This checks if more than 80% of a line matches the other
-                                            double distance = jaroWinklerDistance.apply(oldLine, line);
-                                            if (config.isDebugMode()) {
-                                                log.debug("Distance between previous line " + distance + " " + oldLine + ":" + line);
-                                            }
-
-                                            if (distance <= 0.20 || oldLine.contains(line)) {
-                                                contains = true;
-                                            }
-                                        }
-
-                                        if (!contains && !lastLines.isEmpty()) {
-                                            String oldestEntry = lastLines.remove(0);
-
-                                            double distance = jaroWinklerDistance.apply(oldestEntry,
-                                                lastPrintedLine != null ? lastPrintedLine : "");
-                                            if (config.isDebugMode()) {
-                                                log.debug("Distance from the last line " + distance);
-                                            }
-
-                                            if (distance > 0.20) {
-                                                lastPrintedLine = oldestEntry;
-                                                logToFile(oldestEntry);
-                                            }
-                                        }
-                                    }
-
-                                    lastLines.clear();
-                                    lastLines.addAll(Arrays.asList(lines));
-                                }
-                            } catch (TesseractException e) {
-                                // Seems safe to just ignore this
-                                handleException(e, false);
-                            }
-                        });
-
-                        executorService.shutdown();
-
-                        try {
-                            // TODO: At least on linux, libtesseract.so can randomly crash the JVM when the thread is interrupted
-                            // We can't cancel OCR when it decides to hang at a native level, and this workaround is not safe either
-                            // This is something that should be addressed by Tesseract or tess4j's team
-                            if (!executorService.awaitTermination(3000, TimeUnit.MILLISECONDS)) {
-                                if (config.isDebugMode()) {
-                                    log.error("Skipping a tick, OCR took too long");
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            // Nothing
-                        }
+                        result = captureAndProcess.get();
+                    } catch (RuntimeException e) {
+                        handleException(e, false);
                     } finally {
-                        tesseractLock.unlock();
-                    }
-                } else {
-                    if (config.isDebugMode()) {
-                        log.debug("Could not acquire lock. Skipping OCR.");
+                        tickTime.recordSince(start);
+
+                        long intervalMs = captureRate.nextIntervalMs(result, getOcrLatencyMs());
+                        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                        scheduler.schedule(this, Math.max(0, intervalMs - elapsedMs), TimeUnit.MILLISECONDS);
                     }
                 }
             };
 
-            // Schedule the main program loop, we do not rely on the main thread here.
-            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-
-            int clampedRateMs = clamp(config.getCaptureRateMs(), 50, 2500);
-
-            scheduler.scheduleAtFixedRate(captureAndProcess, 0, clampedRateMs, TimeUnit.MILLISECONDS);// 1 Second? seems ok
+            scheduler.execute(loop);
         } catch (Exception e) {
             handleException(e);
         }
@@ -378,6 +452,7 @@ public class LiveCaptionsLogger {
             trayIcon.displayMessage(REGISTRY_APP_NAME, "Live caption logging is now " + (config.isCurrentlyLogging() ? "ON" : "OFF"), TrayIcon.MessageType.INFO);
         }));
 
+        // LiveCaptions itself only exists on Windows
         if (isWindows()) {
             popup.add(buildMenuItem("Toggle LiveCaptions Sensing", (ActionEvent e) -> {
                 config.setLiveCaptionsSensing(!config.isLiveCaptionsSensing());
@@ -406,12 +481,25 @@ public class LiveCaptionsLogger {
 
         if (isWindows()) {
             popup.add(buildMenuItem("Toggle Auto Start", (ActionEvent e) -> {
-                boolean result = checkStartupStatusAndToggle();
-
-                trayIcon.displayMessage(REGISTRY_APP_NAME, "Application auto start is now " + (result ? "ON" : "OFF"), TrayIcon.MessageType.INFO);
+                // The registry calls wait on reg.exe, keep them off the event thread
+                CompletableFuture.supplyAsync(this::checkStartupStatusAndToggle, blockingTasks)
+                    .thenAccept((result) -> {
+                        trayIcon.displayMessage(REGISTRY_APP_NAME, "Application auto start is now " + (result ? "ON" : "OFF"), TrayIcon.MessageType.INFO);
+                    }).exceptionally((e1) -> {
+                        handleException(e1);
+                        return null;
+                    });
             }));
         }
 
+        popup.add(buildMenuItem("Toggle Frame Recording", (ActionEvent e) -> {
+            config.setFrameRecording(!config.isFrameRecording());
+
+            updateConfig();
+
+            trayIcon.displayMessage(REGISTRY_APP_NAME, "Frame recording is now " + (config.isFrameRecording() ? "ON" : "OFF"), TrayIcon.MessageType.INFO);
+        }));
+
         popup.add(buildMenuItem("Toggle Debug Mode", (ActionEvent e) -> {
             config.setDebugMode(!config.isDebugMode());
 
@@ -420,6 +508,18 @@ public class LiveCaptionsLogger {
             trayIcon.displayMessage(REGISTRY_APP_NAME, "Debug mode is now " + (config.isDebugMode() ? "ON" : "OFF"), TrayIcon.MessageType.INFO);
         }));
 
+        popup.add(buildMenuItem("Toggle Frame Tracing", (ActionEvent e) -> {
+            config.setFrameTrace(!config.isFrameTrace());
+
+            updateConfig();
+
+            trayIcon.displayMessage(REGISTRY_APP_NAME, "Frame tracing is now " + (config.isFrameTrace() ? "ON" : "OFF"), TrayIcon.MessageType.INFO);
+        }));
+
+        popup.add(buildMenuItem("Dump Frame Trace", (ActionEvent e) -> {
+            dumpFrameTrace();
+        }));
+
         popup.add(buildMenuItem("Configure Captions Area", (ActionEvent e) -> {
             openSnipper();
         }));
@@ -441,6 +541,8 @@ public class LiveCaptionsLogger {
                 updateScreenZone();
                 closeLogger();
 
+                updateOcrDeadline();
+
                 trayIcon.displayMessage(REGISTRY_APP_NAME, "Settings have been restored to default", TrayIcon.MessageType.INFO);
             }
         }));
@@ -451,9 +553,46 @@ public class LiveCaptionsLogger {
 
         popup.add(buildMenuItem("Exit", (ActionEvent e) -> {
             log.info("Exiting....");
+            if (capturePlanner != null) {
+                log.info("Screen capture: {}", capturePlanner.getStatsSummary());
+            }
+
+            log.info("Capture rate: {}", captureRate.getStatsSummary());
+            log.info("LiveCaptions sensing: {}", liveCaptionsWatcher.getStatsSummary());
+
+            log.info("OCR stats: {}", enginePool.getStatsSummary());
+            log.info("Debug frames: {}", debugFrameRecorder.getStatsSummary());
+
+            for (OcrWorker ocrWorker : ocrWorkers) {
+                log.info("OCR worker: {}", ocrWorker.getStatsSummary());
+            }
+
+            for (RegionCapture regionCapture : regionCaptures) {
+                log.info("Pipeline: {}", regionCapture.pipeline.getStatsSummary());
+                log.info("Transcript queue: {}", regionCapture.transcriptQueue.getStatsSummary());
+                log.info("Transcript: {}", regionCapture.transcriptWriter.getStatsSummary());
+                log.info("Frame recording: {}", regionCapture.frameRecorder.getStatsSummary());
+            }
 
             try {
                 closeLogger();
+
+                if (metricsExporter != null) {
+                    metricsExporter.close();
+                }
+
+                if (metricsServer != null) {
+                    metricsServer.close();
+                }
+
+                debugFrameRecorder.close();
+
+                for (RegionCapture regionCapture : regionCaptures) {
+                    // Let the queue drain before the writer closes
+                    regionCapture.transcriptQueue.close();
+                    regionCapture.transcriptWriter.close();
+                    regionCapture.frameRecorder.close();
+                }
             } catch (Exception e1) {
                 handleException(e1);
             } finally {
@@ -504,27 +643,45 @@ public class LiveCaptionsLogger {
     }
 
     /**
-     * Updates the capture area based on the current configuration, accounting
+     * Updates the capture areas based on the current configuration, accounting
      * for the current display scale.
      */
     private void updateScreenZone() {
-        AffineTransform transform = getGraphicsTransformAt(config.getBoxStartX(), config.getBoxStartY());
+        for (RegionCapture regionCapture : regionCaptures) {
+            CaptureRegion region = regionCapture.region;
+
+            if (region.getName().equals(MAIN_REGION)) {
+                regionCapture.screenZone = toScreenZone(config.getBoxStartX(), config.getBoxStartY(),
+                    config.getBoxEndX(), config.getBoxEndY());
+            } else {
+                regionCapture.screenZone = toScreenZone(region.getBoxStartX(), region.getBoxStartY(),
+                    region.getBoxEndX(), region.getBoxEndY());
+            }
+        }
+    }
+
+    /**
+     * Converts configured coordinates to a capture area, accounting
+     * for the current display scale.
+     */
+    private Rectangle toScreenZone(int boxStartX, int boxStartY, int boxEndX, int boxEndY) {
+        AffineTransform transform = getGraphicsTransformAt(boxStartX, boxStartY);
         double scaleX = transform.getScaleX();
         double scaleY = transform.getScaleY();
 
-        int scaledBoxStartX = (int)(config.getBoxStartX() / scaleX);
-        int scaledBoxStartY = (int)(config.getBoxStartY() / scaleY);
-        int scaledBoxEndX = (int)(config.getBoxEndX() / scaleX);
-        int scaledBoxEndY = (int)(config.getBoxEndY() / scaleY);
+        int scaledBoxStartX = (int)(boxStartX / scaleX);
+        int scaledBoxStartY = (int)(boxStartY / scaleY);
+        int scaledBoxEndX = (int)(boxEndX / scaleX);
+        int scaledBoxEndY = (int)(boxEndY / scaleY);
 
         if (config.isDebugMode()) {
             log.info("Scaling Factor 1: " + "X " + scaleX + " Y " + scaleY);
 
             log.info("Real Rectangle Coordinates:");
-            log.info("StartX: " + config.getBoxStartX());
-            log.info("StartY: " + config.getBoxStartY());
-            log.info("EndX: " + config.getBoxEndX());
-            log.info("EndY: " + config.getBoxEndY());
+            log.info("StartX: " + boxStartX);
+            log.info("StartY: " + boxStartY);
+            log.info("EndX: " + boxEndX);
+            log.info("EndY: " + boxEndY);
 
             log.info("Scaled Rectangle Coordinates:");
             log.info("StartX: " + scaledBoxStartX);
@@ -533,7 +690,7 @@ public class LiveCaptionsLogger {
             log.info("EndY: " + scaledBoxEndY);
         }
 
-        screenZone = new Rectangle(scaledBoxStartX, scaledBoxStartY,
+        return new Rectangle(scaledBoxStartX, scaledBoxStartY,
             scaledBoxEndX - scaledBoxStartX,
             scaledBoxEndY - scaledBoxStartY);
     }
@@ -643,18 +800,6 @@ public class LiveCaptionsLogger {
         startLiveCaptions();
     }
 
-    /**
-     * Saves debug images (for troubleshooting) to the output
-     * folder if debugMode = true.
-     */
-    private void saveDebugImage(BufferedImage image, String fileName) throws IOException {
-        File picturesDirectory = getOrCreateOutputDirectory();
-
-        File destinationFile = new File(picturesDirectory, fileName);
-
-        ImageIO.write(image, "png", destinationFile);
-    }
-
     /**
      * This shortcut is specific to Windows 11.
      */
@@ -702,6 +847,28 @@ public class LiveCaptionsLogger {
         updateConfig(config);
     }
 
+    /**
+     * Writes the frame trace to the work directory, FrameTraceReader turns it into text.
+     */
+    private void dumpFrameTrace() {
+        if (frameTrace.getRecorded() == 0) {
+            trayIcon.displayMessage(REGISTRY_APP_NAME, "The frame trace is empty, it only records while frame tracing is ON", TrayIcon.MessageType.INFO);
+            return;
+        }
+
+        File file = new File(getWorkDirectory(), "frame_trace_" + FORMATTER.format(LocalDateTime.now()) + ".bin");
+
+        try {
+            int records = frameTrace.dump(file);
+
+            log.info("Dumped {} frame trace records to {}", records, file);
+
+            trayIcon.displayMessage(REGISTRY_APP_NAME, "Frame trace saved to " + file, TrayIcon.MessageType.INFO);
+        } catch (IOException e) {
+            handleException(e);
+        }
+    }
+
     /**
      * Writes changes made to the Settings class to disk.
      */
@@ -716,24 +883,49 @@ public class LiveCaptionsLogger {
             objectMapper.writerWithDefaultPrettyPrinter().writeValue(configFile, configIn);
 
             LoggerUtils.setDebugLogLevel(configIn.isDebugMode());
+            frameTrace.setEnabled(configIn.isFrameTrace());
+
+            // Settings such as ContrastMode change what OCR sees for the same frame
+            for (RegionCapture regionCapture : regionCaptures) {
+                regionCapture.pipeline.reset();
+            }
         } catch (IOException e) {
             handleException(e);
         }
     }
 
     /**
-     * Checks whether LiveCaptions is currently running.
-     * This is specific to Windows 11.
+     * Resolves the tessdata folder, only extracting the bundled
+     * resources again if CustomTessDataPath has changed.
      */
-    private boolean isLiveCaptionsRunning() {
-        if (!isWindows11()) {
-            return false;
+    private File getTessDataFolder() {
+        String source = config.getCustomTessDataPath();
+
+        if (tessDataFolder == null || !source.equals(tessDataSource)) {
+            File folder;
+            if (source.isEmpty()) {
+                folder = LoadLibs.extractTessResources("tessdata");
+            } else {
+                folder = new File(source);
+            }
+
+            if (!folder.exists()) {
+                throw new RuntimeException("tessdata folder not found!");
+            }
+
+            tessDataFolder = folder;
+            tessDataSource = source;
         }
 
-        return ProcessHandle.allProcesses()
-            .anyMatch((processHandle)
-                -> processHandle.info().command().map((command)
-                -> command.contains("LiveCaptions.exe")).orElse(false));
+        return tessDataFolder;
+    }
+
+    /**
+     * Points the engine pool to the current tessdata folder and language,
+     * engines are only re-initialized if either of them changed.
+     */
+    private void updateTesseractConfig() {
+        enginePool.configure(getTessDataFolder().getAbsolutePath(), config.getTessLanguage());
     }
 
     /**
@@ -908,111 +1100,115 @@ public class LiveCaptionsLogger {
      * This method is called before exit or when the CC window goes away.
      */
     private void closeLogger() {
-        synchronized (lastLines) {
-            while (!lastLines.isEmpty()) {
-                String oldestEntry = lastLines.remove(0);
+        for (RegionCapture regionCapture : regionCaptures) {
+            regionCapture.pipeline.endSession();
+        }
+    }
 
-                if (!oldestEntry.equals(lastPrintedLine)) {
-                    lastPrintedLine = oldestEntry;
-                    logToFile(oldestEntry);
-                }
-            }
+    /**
+     * Names the file for a new frame recording of the region.
+     * Recording can be toggled several times a second, so a counter is added when the name is taken.
+     */
+    private File createRecordingFile(CaptureRegion region) {
+        File directory = getOrCreateOutputDirectory();
+
+        String baseName = "Recording" + getFileNameTag(region) + "_" + FORMATTER.format(LocalDateTime.now());
 
-            currentFile = null;
-            lastPrintedLine = "";
+        File file = new File(directory, baseName + ".lcfr");
+        for (int i = 2; file.exists(); i++) {
+            file = new File(directory, baseName + "_" + i + ".lcfr");
         }
+
+        return file;
     }
 
     /**
-     * Filters out non-white pixels for better visibility,
-     * This is specifically tailored for white text.
+     * Names the file for a new transcript of the region.
      */
-    private BufferedImage filterWhite(BufferedImage image) {
-        if (config.isContrastMode()) {
-            BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-            Graphics g = result.getGraphics();
-            g.drawImage(image, 0, 0, null);
-            g.dispose();
-
-            ColorConvertOp colorConvert = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
-            colorConvert.filter(result, result);
-
-            int threshold = 180;
-            int[] pixels = result.getRGB(0, 0, result.getWidth(), result.getHeight(), null, 0, result.getWidth());
-            for (int i = 0; i < pixels.length; i++) {
-                int alpha = (pixels[i] >> 24) & 0xFF;
-                int red = (pixels[i] >> 16) & 0xFF;
-                int green = (pixels[i] >> 8) & 0xFF;
-                int blue = pixels[i] & 0xFF;
-
-                int gray = (red + green + blue) / 3;
-                int color = (gray < threshold) ? 0x000000 : 0xFFFFFF;
-
-                pixels[i] = (alpha << 24) | color;
-            }
+    private File createTranscriptFile(CaptureRegion region) {
+        File file = getOrCreateOutputDirectory();
 
-            result.setRGB(0, 0, result.getWidth(), result.getHeight(), pixels, 0, result.getWidth());
-            return result;
-        } else {
-            return image;
-        }
+        return new File(file, "LiveCaptions" + getFileNameTag(region) + "_" + FORMATTER.format(LocalDateTime.now()) + ".txt");
     }
 
     /**
-     * Ignore capturing if we aren't seeing the caption box
-     *
-     * This method checks if all four corners of the selected
-     * screen area are darker than the set RGB threshold.
+     * The main region keeps the original file names, other regions add their name to them.
      */
-    private boolean inCaptionBox(BufferedImage image) {
-        if (config.isCaptureAnyText()) {// Results might not be the best, toggle contrast mode on and do NOT select the whole screen unless you have a really good CPU
-            return true;
+    private static String getFileNameTag(CaptureRegion region) {
+        if (region.getName().equals(MAIN_REGION)) {
+            return "";
         }
 
-        List<Integer> corners = Arrays.asList(
-            image.getRGB(0, 0),
-            image.getRGB(image.getWidth() - 1, 0),
-            image.getRGB(0, image.getHeight() - 1),
-            image.getRGB(image.getWidth() - 1, image.getHeight() - 1)
-        );
+        return "_" + region.getName().replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    /**
+     * Sets up the pipeline and transcript of a capture region.
+     */
+    private RegionCapture createRegionCapture(CaptureRegion region, CapturePlanner planner, List<OcrWorker> regionWorkers) {
+        RegionCapture regionCapture = new RegionCapture(region);
+
+        // Initialize the transcript writer
+        regionCapture.transcriptWriter = new TranscriptWriter(() -> config,
+            () -> createTranscriptFile(region), this::handleException);
+        regionCapture.transcriptQueue = new AsyncTranscriptSink(() -> config, regionCapture.transcriptWriter,
+            clamp(config.getTranscriptQueueSize(), 16, 65536), this::handleException);
 
-        return corners.stream().allMatch((colour) -> {
-            int red = (colour >> 16) & 0xFF;
-            int green = (colour >> 8) & 0xFF;
-            int blue = colour & 0xFF;
+        // Initialize the capture pipeline
+        regionCapture.pipeline = new CaptionPipeline(() -> config, region,
+            planner.createSource(() -> regionCapture.screenZone),
+            regionWorkers, regionCapture.transcriptQueue, this::handleException);
 
-            if (config.isDebugMode()) {
-                log.debug("Corner RGB: " + red + ":" + green + ":" + blue);
-            }
+        regionCapture.frameRecorder = new FrameRecorder(() -> createRecordingFile(region), (e) -> handleException(e, false));
+
+        regionCapture.pipeline.setTrace(frameTrace);
+        regionCapture.pipeline.setDebugFrameRecorder(debugFrameRecorder);
+        regionCapture.pipeline.registerMetrics(metrics);
+        regionCapture.transcriptQueue.registerMetrics(metrics, "region", region.getName());
 
-            int threshold = config.getCaptionWindowColorThreshold();
+        metrics.info("livecaptions_transcript_file", "The transcript file being written to", () -> {
+            File file = regionCapture.transcriptWriter.getCurrentFile();
 
-            return red <= threshold && green <= threshold && blue <= threshold;// All mostly black! seems to vary a bit. This has to be tweaked if not black & white
+            return file != null ? file.getAbsolutePath() : null;
+        }, "region", region.getName());
+
+        String debugImageName = "cc_debug" + getFileNameTag(region) + ".png";
+
+        regionCapture.pipeline.setFrameListener((screenshot) -> {
+            // Frames are compressed and written on the recorder's thread
+            if (config.isFrameRecording()) {
+                regionCapture.frameRecorder.record(screenshot);
+            } else if (regionCapture.frameRecorder.isRecording()) {
+                regionCapture.frameRecorder.finish();
+            }
+
+            // Shows the current capture area, sampled frames are saved by the recorder
+            if (config.isDebugMode() && currentTick.get() % 10 == 0) {
+                debugFrameRecorder.savePreview(screenshot, debugImageName);
+            }
         });
+
+        return regionCapture;
     }
 
     /**
-     * Logs finished lines to disk.
+     * The slowest recent OCR latency of any region, per worker OCRing its frames.
      */
-    private void logToFile(String line) {
-        if (config.isDebugMode()) {
-            log.info("Line Finished: " + line);
-        }
-
-        if (currentFile == null) {
-            Calendar now = Calendar.getInstance();
+    private double getOcrLatencyMs() {
+        double latencyMs = 0;
 
-            File file = getOrCreateOutputDirectory();
+        for (RegionCapture regionCapture : regionCaptures) {
+            CaptionPipeline pipeline = regionCapture.pipeline;
 
-            currentFile = new File(file, "LiveCaptions_" + FORMATTER.format(now.getTime()) + ".txt");
+            latencyMs = Math.max(latencyMs, pipeline.getOcrLatencyMs() / pipeline.getOcrWorkerCount());
         }
 
-        // Open and close immediatelly so we don't keep a lock on the file
-        try (FileWriter fw = new FileWriter(currentFile, true);
-             PrintWriter pw = new PrintWriter(fw)) {
-            pw.println(line);
-        } catch (IOException e) {// Shenanigans happened
-            handleException(e);
+        return latencyMs;
+    }
+
+    private void updateOcrDeadline() {
+        for (OcrWorker ocrWorker : ocrWorkers) {
+            ocrWorker.setDeadlineMs(clamp(config.getOcrTimeoutMs(), 500, 30000));
         }
     }
 
@@ -18,7 +18,11 @@ package net.brlns.livecaptions;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.ArrayList;
+import java.util.List;
 import lombok.Data;
+import net.brlns.livecaptions.debug.DebugFrameSampling;
+import net.brlns.livecaptions.transcript.BackpressurePolicy;
 
 /**
  * Program Settings
@@ -46,6 +50,15 @@ public class Settings {
     @JsonProperty("PixelEndY")
     private int boxEndY = 103;
 
+    /**
+     * More screen areas to log at the same time as the one above, e.g.
+     * [{"Name": "Browser", "PixelStartX": 200, "PixelStartY": 900, "PixelEndX": 1700, "PixelEndY": 1000, "ContrastMode": true}]
+     * Each area is logged to its own file, filter settings that are left out
+     * are taken from the settings below. Requires a restart.
+     */
+    @JsonProperty("AdditionalCaptureRegions")
+    private List<CaptureRegion> additionalCaptureRegions = new ArrayList<>();
+
     /**
      * Output directory for logs and debug images.
      */
@@ -60,6 +73,14 @@ public class Settings {
     @JsonProperty("LiveCaptionsSensing")
     private boolean liveCaptionsSensing = false;
 
+    /**
+     * The executable LiveCaptionsSensing looks for, without its directory.
+     * Other captioning programs can be sensed by changing this, which is also
+     * how sensing works outside of Windows.
+     */
+    @JsonProperty("LiveCaptionsProcessName")
+    private String liveCaptionsProcessName = "LiveCaptions.exe";
+
     /**
      * This option should be set to true if you're trying to capture anything
      * else that is not Windows 11's LiveCaptions with theme set to white on black.
@@ -84,6 +105,76 @@ public class Settings {
     @JsonProperty("DebugMode")
     private boolean debugMode = false;
 
+    /**
+     * Which OCR'd frames are saved to the debug_frames folder in OutputPath
+     * while debug mode is on, along with the filtered image and what OCR read:
+     * EVERY_NTH_FRAME saves every DebugFrameInterval-th frame.
+     * OCR_FAILURE saves frames OCR failed on or read no text from.
+     * LINE_COMMIT saves frames that finished a line.
+     */
+    @JsonProperty("DebugFrameSampling")
+    private DebugFrameSampling debugFrameSampling = DebugFrameSampling.EVERY_NTH_FRAME;
+
+    /**
+     * Accepted range 1 ~ 10000.
+     */
+    @JsonProperty("DebugFrameInterval")
+    private int debugFrameInterval = 10;
+
+    /**
+     * The oldest debug frames are deleted once the folder grows past this size.
+     *
+     * Accepted range 1MB ~ 10240MB.
+     */
+    @JsonProperty("DebugFramesMaxMB")
+    private int debugFramesMaxMB = 200;
+
+    /**
+     * Records every captured frame to a compressed .lcfr file in OutputPath,
+     * one per region, that HeadlessRunner --recording can replay through the
+     * pipeline to reproduce OCR or merging issues.
+     */
+    @JsonProperty("FrameRecording")
+    private boolean frameRecording = false;
+
+    /**
+     * Records what happens to every frame in memory, independently of DebugMode,
+     * "Dump Frame Trace" in the tray menu saves the recent records to a file.
+     * Recording is cheap enough to leave on while chasing a timing issue.
+     */
+    @JsonProperty("FrameTrace")
+    private boolean frameTrace = false;
+
+    /**
+     * Periodically appends capture, filter and OCR timings and counters
+     * to a metrics CSV file in the work directory.
+     * Requires a restart.
+     */
+    @JsonProperty("MetricsExport")
+    private boolean metricsExport = false;
+
+    /**
+     * Time between metrics snapshots.
+     *
+     * Accepted range 1000ms ~ 3600000ms. Requires a restart.
+     */
+    @JsonProperty("MetricsExportIntervalMs")
+    private int metricsExportIntervalMs = 60000;
+
+    /**
+     * Serves the same metrics in the Prometheus text format on
+     * http://localhost:MetricsEndpointPort/metrics, only reachable from this machine.
+     * Requires a restart.
+     */
+    @JsonProperty("MetricsEndpoint")
+    private boolean metricsEndpoint = false;
+
+    /**
+     * Accepted range 1024 ~ 65535. Requires a restart.
+     */
+    @JsonProperty("MetricsEndpointPort")
+    private int metricsEndpointPort = 9464;
+
     /**
      * Current logging state during startup.
      */
@@ -100,6 +191,131 @@ public class Settings {
     @JsonProperty("CaptureRateMs")
     private int captureRateMs = 1000;
 
+    /**
+     * Captures faster while captions are changing and slows down while
+     * they are not, instead of capturing every CaptureRateMs.
+     */
+    @JsonProperty("AdaptiveCaptureRate")
+    private boolean adaptiveCaptureRate = true;
+
+    /**
+     * The fastest adaptive capture rate, used while captions are changing.
+     *
+     * Accepted range 50ms ~ 2500ms.
+     */
+    @JsonProperty("AdaptiveMinCaptureRateMs")
+    private int adaptiveMinCaptureRateMs = 250;
+
+    /**
+     * The slowest adaptive capture rate, reached after a while without
+     * changes or without the caption box on screen.
+     *
+     * Accepted range AdaptiveMinCaptureRateMs ~ 10000ms.
+     */
+    @JsonProperty("AdaptiveMaxCaptureRateMs")
+    private int adaptiveMaxCaptureRateMs = 2500;
+
+    /**
+     * Splits the capture area into lines of text and only runs OCR on
+     * the lines that changed since the last capture.
+     *
+     * Turn this off if lines are being cut or merged incorrectly.
+     */
+    @JsonProperty("IncrementalOcr")
+    private boolean incrementalOcr = true;
+
+    /**
+     * How long a single OCR pass may take before it is considered hung,
+     * the hung Tesseract instance is discarded and replaced.
+     *
+     * Accepted range 500ms ~ 30000ms.
+     */
+    @JsonProperty("OcrTimeoutMs")
+    private int ocrTimeoutMs = 3000;
+
+    /**
+     * How many frames of the same capture region may be OCR'd at the same
+     * time, each one by its own Tesseract instance. Raising this lets OCR
+     * keep up with faster capture rates on machines with cores to spare,
+     * at the cost of memory for every extra Tesseract instance.
+     *
+     * Accepted range 1 ~ 16, capped at the number of cores. Requires a restart.
+     */
+    @JsonProperty("OcrConcurrency")
+    private int ocrConcurrency = 1;
+
+    /**
+     * Runs blocking tasks such as process checks and registry calls on
+     * virtual threads, only when running on Java 21 or newer.
+     * OCR always runs on its own platform threads.
+     *
+     * Requires a restart.
+     */
+    @JsonProperty("VirtualThreads")
+    private boolean virtualThreads = true;
+
+    /**
+     * Caption lines are logged once they go off screen, when Live Captions is done revising them.
+     * If set, a line that has not changed for this many OCR'd frames is logged early,
+     * while it is still on screen, as long as it is not the bottom line.
+     * Only frames that changed and went through OCR count, identical captures
+     * are skipped before OCR and do not make a line any more stable.
+     * Revisions Live Captions makes after a line was logged early are not logged,
+     * keep this high enough that they are rare.
+     * 0 only logs lines once they go off screen.
+     *
+     * Accepted range 0 ~ 100.
+     */
+    @JsonProperty("CaptionStableFrames")
+    private int captionStableFrames = 0;
+
+    /**
+     * Finished lines are kept in memory and written to the transcript file
+     * in batches, at most this long after they finish.
+     * 0 writes every line right away.
+     *
+     * Accepted range 0ms ~ 60000ms.
+     */
+    @JsonProperty("TranscriptFlushIntervalMs")
+    private int transcriptFlushIntervalMs = 1000;
+
+    /**
+     * How often written lines are forced to the disk, lines that were written
+     * but not synced yet may be lost on a power failure or system crash.
+     * 0 syncs after every write.
+     *
+     * Accepted range 0ms ~ 600000ms.
+     */
+    @JsonProperty("TranscriptFsyncIntervalMs")
+    private int transcriptFsyncIntervalMs = 5000;
+
+    /**
+     * The transcript file is closed after this long without new lines,
+     * so it can be moved or deleted while captions are paused.
+     *
+     * Accepted range 1000ms ~ 600000ms.
+     */
+    @JsonProperty("TranscriptIdleReleaseMs")
+    private int transcriptIdleReleaseMs = 10000;
+
+    /**
+     * Finished lines wait in a queue for the transcript writer, so a slow
+     * disk does not hold up OCR. This is how many lines may be waiting.
+     *
+     * Accepted range 16 ~ 65536. Requires a restart.
+     */
+    @JsonProperty("TranscriptQueueSize")
+    private int transcriptQueueSize = 256;
+
+    /**
+     * What to do when the transcript queue is full:
+     * BLOCK waits for the disk, pausing OCR meanwhile.
+     * DROP_OLDEST discards the oldest waiting line.
+     * SPILL writes the extra lines to a temporary file that is written out in order once the disk catches up.
+     */
+    @JsonProperty("TranscriptBackpressure")
+    private BackpressurePolicy transcriptBackpressure = BackpressurePolicy.BLOCK;
+
     /**
      * should be a value between 0-255
      * 255 is the same as CaptureAnyText = true
@@ -111,6 +327,18 @@ public class Settings {
     @JsonProperty("CaptionWindowDetectColorThreshold")
     private int captionWindowColorThreshold = 30;
 
+    /**
+     * While the captions are not on screen, checks the four corners of the capture area
+     * first, with one pixel high captures of its top and bottom rows, and only captures
+     * the whole area if they look like the caption box.
+     * Saves a full capture every tick while the captions are away, once the box is found
+     * the whole area is captured right away until it goes missing again.
+     *
+     * Turn this off if the debug image should be saved even when the caption box is not detected.
+     */
+    @JsonProperty("ProbeCaptionBox")
+    private boolean probeCaptionBox = true;
+
     /**
      * If you need to use languages other than English,
      * download tesseract from https://github.com/UB-Mannheim/tesseract/wiki
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Shares screen captures between every area that needs pixels.
+ *
+ * createScreenCapture() is expensive no matter how small the area is, so
+ * areas close to each other are grabbed together, in one capture of their
+ * bounding rectangle, and each area is handed a subimage view of it, no
+ * pixels are copied. Areas that are far apart, e.g. on different monitors,
+ * are grouped separately since capturing everything in between would cost
+ * more than the extra call.
+ *
+ * A group is captured again whenever one of its areas asks for a frame it
+ * already got, which happens once per capture tick, or when the latest
+ * capture is too old to pass for the current tick.
+ *
+ * Corner probes read single pixels, from the latest capture of the group
+ * if it is still fresh. Otherwise the left corner of a row captures the whole
+ * row, one pixel high, and the right corner reads it from that same capture,
+ * so a probe costs at most two captures.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class CapturePlanner {
+
+    /**
+     * Areas are only grabbed together if their bounding rectangle is at most
+     * this many times larger than the areas themselves.
+     */
+    private static final double MAX_UNION_WASTE = 1.5;
+
+    /**
+     * Captures older than this are never shared, areas of a group are captured within
+     * a few milliseconds of each other and the fastest capture rate is 50ms.
+     */
+    private static final long MAX_SHARED_AGE_NANOS = 25_000_000;
+
+    private final Function<Rectangle, BufferedImage> screenGrabber;
+
+    private final List<Supplier<Rectangle>> zoneSuppliers = new ArrayList<>();
+
+    // The row the last corner probe of every area captured, its right corner is read from it
+    private final List<Rectangle> probeRowBounds = new ArrayList<>();
+    private final List<BufferedImage> probeRows = new ArrayList<>();
+
+    // The plan, rebuilt whenever an area changes
+    private Rectangle[] zones = new Rectangle[0];
+    private int[] groupOfZone = new int[0];
+    private List<Rectangle> groups = new ArrayList<>();
+
+    // The latest capture of every group, and which capture each area was last handed
+    private BufferedImage[] grabs = new BufferedImage[0];
+    private long[] grabGenerations = new long[0];
+    private long[] grabNanos = new long[0];
+    private long[] servedGenerations = new long[0];
+    private long generation = 0;
+
+    private final AtomicLong captures = new AtomicLong();
+    private final AtomicLong framesServed = new AtomicLong();
+    private final AtomicLong pixelsCaptured = new AtomicLong();
+    private final AtomicLong pixelsServed = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong probesShared = new AtomicLong();
+    private final AtomicLong probeCaptures = new AtomicLong();
+
+    /**
+     * @param screenGrabberIn captures an area of the screen, e.g. Robot::createScreenCapture
+     */
+    public CapturePlanner(Function<Rectangle, BufferedImage> screenGrabberIn) {
+        screenGrabber = screenGrabberIn;
+    }
+
+    /**
+     * Registers an area that needs pixels.
+     *
+     * @param zoneSupplier supplies the current area, it may change between frames
+     * @return a source of frames of the area
+     */
+    public synchronized CornerProbingSource createSource(Supplier<Rectangle> zoneSupplier) {
+        int index = zoneSuppliers.size();
+        zoneSuppliers.add(zoneSupplier);
+        probeRowBounds.add(null);
+        probeRows.add(null);
+
+        zones = new Rectangle[0];// Forces a new plan
+
+        return new CornerProbingSource() {
+            @Override
+            public BufferedImage nextFrame() {
+                return capture(index);
+            }
+
+            @Override
+            public int probeCorner(int corner) {
+                return CapturePlanner.this.probeCorner(index, corner);
+            }
+        };
+    }
+
+    /**
+     * Grabs the area, reusing the latest capture of its group if the area has not seen it yet.
+     */
+    synchronized BufferedImage capture(int index) {
+        Rectangle zone = zoneSuppliers.get(index).get();
+
+        if (zone.isEmpty()) {
+            return screenGrabber.apply(zone);// Fails the same way as before
+        }
+
+        if (needsNewPlan()) {
+            plan();
+        }
+
+        int group = groupOfZone[index];
+        Rectangle bounds = groups.get(group);
+
+        if (!hasFreshGrab(index, group)) {
+            grabs[group] = screenGrabber.apply(bounds);
+            grabGenerations[group] = ++generation;
+            grabNanos[group] = System.nanoTime();
+
+            captures.incrementAndGet();
+            pixelsCaptured.addAndGet((long)bounds.width * bounds.height);
+        }
+
+        servedGenerations[index] = grabGenerations[group];
+
+        framesServed.incrementAndGet();
+        pixelsServed.addAndGet((long)zone.width * zone.height);
+
+        if (zone.equals(bounds)) {
+            return grabs[group];
+        }
+
+        return grabs[group].getSubimage(zone.x - bounds.x, zone.y - bounds.y, zone.width, zone.height);
+    }
+
+    /**
+     * Reads a corner pixel of the area, see CornerProbingSource.probeCorner().
+     */
+    synchronized int probeCorner(int index, int corner) {
+        Rectangle zone = zoneSuppliers.get(index).get();
+
+        int x = (corner & 1) == 0 ? zone.x : zone.x + zone.width - 1;
+        int y = (corner & 2) == 0 ? zone.y : zone.y + zone.height - 1;
+
+        probes.incrementAndGet();
+
+        if (!zone.isEmpty() && !needsNewPlan()) {
+            int group = groupOfZone[index];
+
+            if (hasFreshGrab(index, group)) {
+                // Another area of the group was just captured, this one will be served the same capture
+                probesShared.incrementAndGet();
+
+                Rectangle bounds = groups.get(group);
+                return grabs[group].getRGB(x - bounds.x, y - bounds.y);
+            }
+        }
+
+        if (zone.isEmpty()) {
+            probeCaptures.incrementAndGet();
+            return screenGrabber.apply(new Rectangle(x, y, 1, 1)).getRGB(0, 0);
+        }
+
+        Rectangle rowBounds = new Rectangle(zone.x, y, zone.width, 1);
+
+        if ((corner & 1) == 0 || !rowBounds.equals(probeRowBounds.get(index))) {
+            probeRowBounds.set(index, rowBounds);
+            probeRows.set(index, screenGrabber.apply(rowBounds));
+            probeCaptures.incrementAndGet();
+        }
+
+        int rgb = probeRows.get(index).getRGB(x - zone.x, 0);
+
+        if ((corner & 1) != 0) {
+            // Done with this row, the next probe captures a fresh one
+            probeRowBounds.set(index, null);
+            probeRows.set(index, null);
+        }
+
+        return rgb;
+    }
+
+    public String getStatsSummary() {
+        long served = framesServed.get();
+        long captured = pixelsCaptured.get();
+
+        return String.format("%d frames from %d captures (%.1f%% fewer), %.1f%% of captured pixels used, %d groups, %d corner probes (%d from shared captures, %d row captures)",
+            served, captures.get(), served == 0 ? 0 : 100 - captures.get() * 100d / served,
+            captured == 0 ? 0 : pixelsServed.get() * 100d / captured, groups.size(),
+            probes.get(), probesShared.get(), probeCaptures.get());
+    }
+
+    /**
+     * Whether the group has a recent capture the area has not been served yet.
+     */
+    private boolean hasFreshGrab(int index, int group) {
+        return grabs[group] != null
+            && servedGenerations[index] != grabGenerations[group]
+            && System.nanoTime() - grabNanos[group] < MAX_SHARED_AGE_NANOS;
+    }
+
+    private boolean needsNewPlan() {
+        if (zones.length != zoneSuppliers.size()) {
+            return true;
+        }
+
+        for (int i = 0; i < zones.length; i++) {
+            if (!zoneSuppliers.get(i).get().equals(zones[i])) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Groups the areas, greedily merging the pair of groups that wastes the fewest pixels.
+     */
+    private void plan() {
+        int count = zoneSuppliers.size();
+
+        zones = new Rectangle[count];
+        groupOfZone = new int[count];
+
+        List<Rectangle> bounds = new ArrayList<>();
+        List<Long> areas = new ArrayList<>();
+        List<List<Integer>> members = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            zones[i] = new Rectangle(zoneSuppliers.get(i).get());
+
+            if (zones[i].isEmpty()) {
+                continue;
+            }
+
+            bounds.add(new Rectangle(zones[i]));
+            areas.add(area(zones[i]));
+
+            List<Integer> group = new ArrayList<>();
+            group.add(i);
+            members.add(group);
+        }
+
+        while (true) {
+            int bestA = -1;
+            int bestB = -1;
+            double bestWaste = MAX_UNION_WASTE;
+
+            for (int a = 0; a < bounds.size(); a++) {
+                for (int b = a + 1; b < bounds.size(); b++) {
+                    double waste = area(bounds.get(a).union(bounds.get(b))) / (double)(areas.get(a) + areas.get(b));
+
+                    if (waste <= bestWaste) {
+                        bestA = a;
+                        bestB = b;
+                        bestWaste = waste;
+                    }
+                }
+            }
+
+            if (bestA == -1) {
+                break;
+            }
+
+            bounds.set(bestA, bounds.get(bestA).union(bounds.remove(bestB)));
+            areas.set(bestA, areas.get(bestA) + areas.remove(bestB));
+            members.get(bestA).addAll(members.remove(bestB));
+        }
+
+        for (int group = 0; group < members.size(); group++) {
+            for (int index : members.get(group)) {
+                groupOfZone[index] = group;
+            }
+        }
+
+        groups = bounds;
+        grabs = new BufferedImage[groups.size()];
+        grabGenerations = new long[groups.size()];
+        grabNanos = new long[groups.size()];
+        servedGenerations = new long[count];
+    }
+
+    private static long area(Rectangle rectangle) {
+        return (long)rectangle.width * rectangle.height;
+    }
+}
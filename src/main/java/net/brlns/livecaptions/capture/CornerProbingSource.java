@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.io.IOException;
+
+/**
+ * A frame source that can read single pixels of the upcoming frame without grabbing all of it.
+ *
+ * Lets the pipeline check the corners of the caption box before paying for a full capture.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public interface CornerProbingSource extends FrameSource {
+
+    /**
+     * Reads a corner pixel of the upcoming frame.
+     *
+     * Corners are probed in order, a source may read the right corner of a row
+     * from the capture it made for the left one.
+     *
+     * @param corner 0 top left, 1 top right, 2 bottom left, 3 bottom right
+     * @return the RGB value of the pixel
+     */
+    int probeCorner(int corner) throws IOException;
+}
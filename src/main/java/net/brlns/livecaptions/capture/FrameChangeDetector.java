@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import net.brlns.livecaptions.ocr.GrayFrame;
+import net.brlns.livecaptions.util.ImageUtils;
+
+/**
+ * Detects whether a captured frame differs from the previous one.
+ *
+ * Most ticks capture a caption box identical to the last one (paused speech,
+ * static subtitles), there is no point in running OCR on those again.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class FrameChangeDetector {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final AtomicLong framesChecked = new AtomicLong();
+    private final AtomicLong framesSkipped = new AtomicLong();
+
+    private long lastHash;
+    private boolean hasLastHash = false;
+
+    /**
+     * Checks the frame against the last one seen.
+     *
+     * @return false if the frame is identical to the previous one
+     */
+    public synchronized boolean hasChanged(BufferedImage image) {
+        framesChecked.incrementAndGet();
+
+        long hash = hash(image);
+
+        if (hasLastHash && hash == lastHash) {
+            framesSkipped.incrementAndGet();
+            return false;
+        }
+
+        lastHash = hash;
+        hasLastHash = true;
+
+        return true;
+    }
+
+    /**
+     * Forgets the last frame, the next one is always considered changed.
+     *
+     * This should be called whenever the last frame did not make it
+     * through OCR or the settings affecting its output changed.
+     */
+    public synchronized void reset() {
+        hasLastHash = false;
+    }
+
+    public long getFramesChecked() {
+        return framesChecked.get();
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped.get();
+    }
+
+    public String getStatsSummary() {
+        long checked = framesChecked.get();
+        long skipped = framesSkipped.get();
+
+        return String.format("frames checked: %d, unchanged: %d (%.1f%%)",
+            checked, skipped, checked == 0 ? 0 : skipped * 100d / checked);
+    }
+
+    /**
+     * Computes a 64 bit FNV-1a style hash over the RGB value of every pixel of the image.
+     *
+     * Gray images are hashed over their gray value instead.
+     */
+    public static long hash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        long hash = FNV_OFFSET;
+        hash = (hash ^ width) * FNV_PRIME;
+        hash = (hash ^ height) * FNV_PRIME;
+
+        if (ImageUtils.isIntPacked(image)) {
+            int[] data = ImageUtils.getIntData(image);
+            int offset = ImageUtils.getIntOffset(image);
+            int stride = ImageUtils.getIntStride(image);
+
+            for (int y = 0; y < height; y++) {
+                int row = offset + y * stride;
+
+                for (int x = 0; x < width; x++) {
+                    hash = (hash ^ (data[row + x] & 0xFFFFFF)) * FNV_PRIME;
+                }
+            }
+        } else if (ImageUtils.isByteGray(image)) {
+            byte[] data = ImageUtils.getByteData(image);
+            int offset = ImageUtils.getByteOffset(image);
+            int stride = ImageUtils.getByteStride(image);
+
+            for (int y = 0; y < height; y++) {
+                int row = offset + y * stride;
+
+                for (int x = 0; x < width; x++) {
+                    hash = (hash ^ (data[row + x] & 0xFF)) * FNV_PRIME;
+                }
+            }
+        } else {
+            int[] row = new int[width];
+
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+
+                for (int x = 0; x < width; x++) {
+                    hash = (hash ^ (row[x] & 0xFFFFFF)) * FNV_PRIME;
+                }
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Computes the same kind of hash over a range of rows of a grayscale frame.
+     */
+    public static long hash(GrayFrame frame, int top, int rows) {
+        int width = frame.getWidth();
+        ByteBuffer buffer = frame.getBuffer();
+
+        long hash = FNV_OFFSET;
+        hash = (hash ^ width) * FNV_PRIME;
+        hash = (hash ^ rows) * FNV_PRIME;
+
+        int end = (top + rows) * frame.getStride();
+        for (int i = top * frame.getStride(); i < end; i++) {
+            hash = (hash ^ (buffer.get(i) & 0xFF)) * FNV_PRIME;
+        }
+
+        return hash;
+    }
+}
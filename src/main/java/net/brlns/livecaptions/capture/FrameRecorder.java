@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Appends captured frames to a recording file that RecordingFrameSource can replay.
+ *
+ * Frames are compressed and written on a background thread, see
+ * FrameRecordingFormat. A file is opened on the first frame and finished,
+ * with its index, by finish(). Frames are dropped rather than waited for if
+ * the disk falls behind, and a new file is started before one would grow
+ * past what can be memory mapped.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class FrameRecorder {
+
+    private static final int QUEUE_SIZE = 32;
+
+    /**
+     * RecordingFrameSource maps the whole file.
+     */
+    private static final long MAX_FILE_BYTES = Integer.MAX_VALUE - (64L << 20);
+
+    private final Supplier<File> fileFactory;
+    private final Consumer<Throwable> errorHandler;
+
+    private final ThreadPoolExecutor executor;
+
+    // Only used on the writer thread
+    @Nullable
+    private FileChannel channel = null;
+    private File currentFile;
+    private long startNanos;
+    private long position;
+    private long[] indexOffsets = new long[1024];
+    private long[] indexNanos = new long[1024];
+    private int frameCount;
+
+    private int[] pixels = new int[0];
+    private int[] previous = new int[0];
+    private int[] encoded = new int[0];
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+    private int previousWidth;
+    private int previousHeight;
+
+    // Only used on the capture thread
+    private boolean recording = false;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+
+    /**
+     * @param fileFactoryIn creates the file for a new recording
+     */
+    public FrameRecorder(Supplier<File> fileFactoryIn, Consumer<Throwable> errorHandlerIn) {
+        fileFactory = fileFactoryIn;
+        errorHandler = errorHandlerIn;
+
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE), (Runnable r) -> {
+                Thread thread = new Thread(r, "Frame-Recorder");
+                thread.setDaemon(true);
+
+                return thread;
+            });
+    }
+
+    /**
+     * Queues a frame, the frame must not be modified afterwards.
+     */
+    public void record(BufferedImage frame) {
+        long nanos = System.nanoTime();
+
+        recording = true;
+
+        execute(() -> write(frame, nanos));
+    }
+
+    /**
+     * Whether frames were recorded since the last finish().
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Finishes the current file once the queued frames are written, the next frame starts a new one.
+     */
+    public void finish() {
+        recording = false;
+
+        try {
+            executor.execute(this::finishFile);
+        } catch (RejectedExecutionException e) {
+            // Let the queue drain, the index is what makes the file quick to open
+            try {
+                executor.getQueue().put(this::finishFile);
+            } catch (InterruptedException e1) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Finishes the current file and stops.
+     */
+    public void close() {
+        finish();
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void write(BufferedImage frame, long nanos) {
+        try {
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            int length = width * height;
+
+            if (channel != null && position + FrameRecordingFormat.FRAME_HEADER_BYTES
+                + FrameRecordingFormat.maxPayloadInts(length) * 4L > MAX_FILE_BYTES) {
+                finishFile();
+            }
+
+            if (channel == null) {
+                openFile(nanos);
+            }
+
+            if (pixels.length < length) {
+                pixels = new int[length];
+                encoded = new int[FrameRecordingFormat.maxPayloadInts(length)];
+            }
+
+            FrameRecordingFormat.readPixels(frame, pixels);
+
+            boolean keyFrame = frameCount % FrameRecordingFormat.KEY_FRAME_INTERVAL == 0
+                || width != previousWidth || height != previousHeight;
+
+            int payloadInts = FrameRecordingFormat.encode(pixels, keyFrame ? null : previous, length, encoded);
+            int recordBytes = FrameRecordingFormat.FRAME_HEADER_BYTES + payloadInts * 4;
+
+            if (buffer.capacity() < recordBytes) {
+                buffer = ByteBuffer.allocateDirect(recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            buffer.clear();
+            buffer.putInt(FrameRecordingFormat.FRAME_MAGIC);
+            buffer.putInt(keyFrame ? FrameRecordingFormat.FLAG_KEY_FRAME : 0);
+            buffer.putInt(width);
+            buffer.putInt(height);
+            buffer.putLong(nanos - startNanos);
+            buffer.putInt(payloadInts);
+            buffer.asIntBuffer().put(encoded, 0, payloadInts);
+            buffer.position(recordBytes);
+            buffer.flip();
+
+            addToIndex(position, nanos - startNanos);
+            writeFully(buffer);
+
+            // The next frame is encoded against this one
+            int[] swap = previous;
+            previous = pixels;
+            pixels = swap.length >= length ? swap : new int[length];
+            previousWidth = width;
+            previousHeight = height;
+
+            recorded.incrementAndGet();
+            rawBytes.addAndGet(length * 4L);
+            writtenBytes.addAndGet(recordBytes);
+        } catch (IOException | RuntimeException e) {
+            errorHandler.accept(e);
+
+            closeQuietly();
+        }
+    }
+
+    /**
+     * @param firstFrameNanos when the first frame was captured, timestamps count from there
+     */
+    private void openFile(long firstFrameNanos) throws IOException {
+        currentFile = fileFactory.get();
+        channel = FileChannel.open(currentFile.toPath(),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        startNanos = firstFrameNanos;
+        position = 0;
+        frameCount = 0;
+        previousWidth = 0;
+        previousHeight = 0;
+
+        ByteBuffer header = ByteBuffer.allocate(FrameRecordingFormat.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FrameRecordingFormat.MAGIC);
+        header.putInt(FrameRecordingFormat.VERSION);
+        header.putLong(System.currentTimeMillis());
+        header.flip();
+
+        writeFully(header);
+        files.incrementAndGet();
+
+        log.info("Recording frames to {}", currentFile);
+    }
+
+    private void addToIndex(long offset, long nanos) {
+        if (frameCount == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, frameCount * 2);
+            indexNanos = Arrays.copyOf(indexNanos, frameCount * 2);
+        }
+
+        indexOffsets[frameCount] = offset;
+        indexNanos[frameCount] = nanos;
+        frameCount++;
+    }
+
+    /**
+     * Appends the index and closes the file.
+     */
+    private void finishFile() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            long indexOffset = position;
+
+            ByteBuffer index = ByteBuffer.allocate(8 + frameCount * 16 + FrameRecordingFormat.FOOTER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            index.putInt(FrameRecordingFormat.INDEX_MAGIC);
+            index.putInt(frameCount);
+
+            for (int i = 0; i < frameCount; i++) {
+                index.putLong(indexOffsets[i]);
+                index.putLong(indexNanos[i]);
+            }
+
+            index.putLong(indexOffset);
+            index.putInt(FrameRecordingFormat.END_MAGIC);
+            index.flip();
+
+            writeFully(index);
+
+            log.info("Recorded {} frames to {}", frameCount, currentFile);
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source);
+        }
+    }
+
+    private void closeQuietly() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        } finally {
+            channel = null;
+        }
+    }
+
+    public String getStatsSummary() {
+        long raw = rawBytes.get();
+
+        return String.format("%d frames in %d files, %d dropped, %.1fMB written (%.1f%% of raw)",
+            recorded.get(), files.get(), dropped.get(), writtenBytes.get() / 1048576d,
+            raw == 0 ? 0 : writtenBytes.get() * 100d / raw);
+    }
+}
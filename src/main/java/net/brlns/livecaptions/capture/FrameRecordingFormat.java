@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
+import net.brlns.livecaptions.util.ImageUtils;
+
+/**
+ * The layout of frame recordings, shared by FrameRecorder and RecordingFrameSource.
+ *
+ * All numbers are little endian. The file starts with MAGIC, VERSION and the
+ * wall clock time of the first frame, followed by one record per frame:
+ * FRAME_MAGIC, flags, width, height, nanoseconds since the first frame, the
+ * payload length in ints, then the payload. A finished recording ends with
+ * an index of every frame's offset and timestamp: INDEX_MAGIC, the frame
+ * count, offset and timestamp pairs, the index offset and END_MAGIC.
+ * Recordings that were not finished, e.g. after a crash, are read by
+ * walking the records instead.
+ *
+ * Payloads hold the RGB of every pixel, XORed with the previous frame unless
+ * it is a key frame, run length encoded in ints: a positive control int n
+ * repeats the next int n times, a negative one is followed by -n literal
+ * ints. Caption boxes are mostly flat black and change a little between
+ * frames, so most of a frame turns into a few long runs of zeros.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+final class FrameRecordingFormat {
+
+    static final int MAGIC = 0x5246434C;// LCFR
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    static final int FRAME_MAGIC = 0x454D5246;// FRME
+    static final int FRAME_HEADER_BYTES = 28;
+
+    static final int INDEX_MAGIC = 0x58444E49;// INDX
+    static final int END_MAGIC = 0x444E454C;// LEND
+    static final int FOOTER_BYTES = 12;
+
+    static final int FLAG_KEY_FRAME = 1;
+
+    /**
+     * Every this many frames is stored whole, so a damaged frame only spoils the frames up to the next one.
+     */
+    static final int KEY_FRAME_INTERVAL = 100;
+
+    /**
+     * The longest run or literal a single control int covers.
+     */
+    private static final int MAX_RUN = 1 << 20;
+
+    private FrameRecordingFormat() {
+    }
+
+    /**
+     * The largest payload a frame of the given size can encode to, in ints.
+     */
+    static int maxPayloadInts(int pixels) {
+        return pixels + pixels / MAX_RUN + 2;
+    }
+
+    /**
+     * Copies the RGB of every pixel into a tightly packed array.
+     */
+    static void readPixels(BufferedImage image, int[] into) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (ImageUtils.isIntPacked(image)
+            && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+            int[] data = ImageUtils.getIntData(image);
+            int offset = ImageUtils.getIntOffset(image);
+            int stride = ImageUtils.getIntStride(image);
+
+            for (int y = 0; y < height; y++) {
+                int row = offset + y * stride;
+
+                for (int x = 0; x < width; x++) {
+                    into[y * width + x] = data[row + x] & 0xFFFFFF;
+                }
+            }
+        } else {
+            image.getRGB(0, 0, width, height, into, 0, width);
+
+            for (int i = 0; i < width * height; i++) {
+                into[i] &= 0xFFFFFF;
+            }
+        }
+    }
+
+    /**
+     * Encodes the pixels, XORed with the previous pixels unless previous is null.
+     *
+     * @return the payload length in ints
+     */
+    static int encode(int[] pixels, int[] previous, int length, int[] out) {
+        int written = 0;
+        int literalStart = -1;
+
+        int i = 0;
+        while (i < length) {
+            int value = previous != null ? pixels[i] ^ previous[i] : pixels[i];
+
+            int run = 1;
+            while (i + run < length && run < MAX_RUN
+                && (previous != null ? pixels[i + run] ^ previous[i + run] : pixels[i + run]) == value) {
+                run++;
+            }
+
+            // Short runs are cheaper as literals
+            if (run < 3) {
+                if (literalStart == -1) {
+                    literalStart = written++;
+                }
+
+                for (int j = 0; j < run; j++) {
+                    out[written++] = value;
+                }
+
+                i += run;
+
+                if (written - literalStart - 1 >= MAX_RUN) {
+                    out[literalStart] = -(written - literalStart - 1);
+                    literalStart = -1;
+                }
+
+                continue;
+            }
+
+            if (literalStart != -1) {
+                out[literalStart] = -(written - literalStart - 1);
+                literalStart = -1;
+            }
+
+            out[written++] = run;
+            out[written++] = value;
+
+            i += run;
+        }
+
+        if (literalStart != -1) {
+            out[literalStart] = -(written - literalStart - 1);
+        }
+
+        return written;
+    }
+
+    /**
+     * Decodes a payload into pixels, XORing with the previous pixels unless previous is null.
+     */
+    static void decode(IntBuffer payload, int[] previous, int[] out, int length) {
+        int i = 0;
+
+        while (i < length) {
+            int control = payload.get();
+
+            if (control > 0) {
+                int value = payload.get();
+                int end = Math.min(length, i + control);
+
+                for (; i < end; i++) {
+                    out[i] = previous != null ? previous[i] ^ value : value;
+                }
+            } else if (control < 0) {
+                int end = Math.min(length, i - control);
+
+                for (; i < end; i++) {
+                    int value = payload.get();
+
+                    out[i] = previous != null ? previous[i] ^ value : value;
+                }
+            } else {
+                throw new IllegalStateException("Corrupt frame payload");
+            }
+        }
+    }
+}
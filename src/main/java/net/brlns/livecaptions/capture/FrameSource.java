@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Where the frames fed to the capture pipeline come from.
+ *
+ * The desktop build captures the screen, other sources allow running and
+ * measuring the whole pipeline without a desktop.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public interface FrameSource extends AutoCloseable {
+
+    /**
+     * Grabs the next frame.
+     *
+     * @return the frame, or null if no frame is available right now
+     */
+    @Nullable
+    BufferedImage nextFrame() throws IOException;
+
+    /**
+     * Whether this source has run out of frames for good, e.g. a replay reached its end.
+     */
+    default boolean isExhausted() {
+        return false;
+    }
+
+    @Override
+    default void close() throws IOException {
+
+    }
+}
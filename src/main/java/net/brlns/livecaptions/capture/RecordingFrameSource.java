@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import net.brlns.livecaptions.util.ImageUtils;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Replays a frame recording made by FrameRecorder.
+ *
+ * The file is memory mapped and frames are decoded as they are requested,
+ * either as fast as they are requested or with the timing they were
+ * recorded with.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class RecordingFrameSource implements FrameSource {
+
+    private final MappedByteBuffer mapped;
+
+    private final long[] offsets;
+    private final long[] timestamps;
+    private final int frameCount;
+
+    private final boolean originalSpeed;
+
+    private int index = 0;
+    private long startNanos = 0;
+
+    @Nullable
+    private int[] previous = null;
+
+    /**
+     * @param file the recording
+     * @param originalSpeedIn whether to wait between frames as long as when they were recorded
+     */
+    public RecordingFrameSource(File file, boolean originalSpeedIn) throws IOException {
+        originalSpeed = originalSpeedIn;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped");
+            }
+
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mapped.limit() < FrameRecordingFormat.HEADER_BYTES
+            || mapped.getInt(0) != FrameRecordingFormat.MAGIC) {
+            throw new IOException(file + " is not a frame recording");
+        }
+
+        int version = mapped.getInt(4);
+        if (version != FrameRecordingFormat.VERSION) {
+            throw new IOException("Unsupported frame recording version " + version);
+        }
+
+        long[][] index = readIndex();
+        if (index == null) {
+            index = scanRecords();
+        }
+
+        offsets = index[0];
+        timestamps = index[1];
+        frameCount = offsets.length;
+    }
+
+    /**
+     * Reads the index a finished recording ends with.
+     *
+     * @return the offsets and timestamps of the frames, or null if there is no index
+     */
+    @Nullable
+    private long[][] readIndex() {
+        int size = mapped.limit();
+
+        if (size < FrameRecordingFormat.HEADER_BYTES + FrameRecordingFormat.FOOTER_BYTES
+            || mapped.getInt(size - 4) != FrameRecordingFormat.END_MAGIC) {
+            return null;
+        }
+
+        long indexOffset = mapped.getLong(size - FrameRecordingFormat.FOOTER_BYTES);
+
+        if (indexOffset < FrameRecordingFormat.HEADER_BYTES || indexOffset > size - 8
+            || mapped.getInt((int)indexOffset) != FrameRecordingFormat.INDEX_MAGIC) {
+            return null;
+        }
+
+        int count = mapped.getInt((int)indexOffset + 4);
+
+        if (count < 0 || indexOffset + 8 + count * 16L + FrameRecordingFormat.FOOTER_BYTES != size) {
+            return null;
+        }
+
+        long[] frameOffsets = new long[count];
+        long[] frameTimestamps = new long[count];
+
+        int position = (int)indexOffset + 8;
+        for (int i = 0; i < count; i++) {
+            frameOffsets[i] = mapped.getLong(position);
+            frameTimestamps[i] = mapped.getLong(position + 8);
+            position += 16;
+        }
+
+        return new long[][]{frameOffsets, frameTimestamps};
+    }
+
+    /**
+     * Walks the records of a recording that was never finished, up to the first incomplete one.
+     */
+    private long[][] scanRecords() {
+        long[] frameOffsets = new long[1024];
+        long[] frameTimestamps = new long[1024];
+        int count = 0;
+
+        int size = mapped.limit();
+        int position = FrameRecordingFormat.HEADER_BYTES;
+
+        while (position + FrameRecordingFormat.FRAME_HEADER_BYTES <= size
+            && mapped.getInt(position) == FrameRecordingFormat.FRAME_MAGIC) {
+            long end = position + FrameRecordingFormat.FRAME_HEADER_BYTES + mapped.getInt(position + 24) * 4L;
+
+            if (end > size) {
+                break;
+            }
+
+            if (count == frameOffsets.length) {
+                frameOffsets = Arrays.copyOf(frameOffsets, count * 2);
+                frameTimestamps = Arrays.copyOf(frameTimestamps, count * 2);
+            }
+
+            frameOffsets[count] = position;
+            frameTimestamps[count] = mapped.getLong(position + 16);
+            count++;
+
+            position = (int)end;
+        }
+
+        return new long[][]{Arrays.copyOf(frameOffsets, count), Arrays.copyOf(frameTimestamps, count)};
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * The time between the first and the last frame, in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return frameCount == 0 ? 0 : timestamps[frameCount - 1] - timestamps[0];
+    }
+
+    @Nullable
+    @Override
+    public BufferedImage nextFrame() throws IOException {
+        if (isExhausted()) {
+            return null;
+        }
+
+        if (index == 0) {
+            startNanos = System.nanoTime();
+        } else if (originalSpeed) {
+            long waitNanos = startNanos + (timestamps[index] - timestamps[0]) - System.nanoTime();
+
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+
+        int position = (int)offsets[index++];
+
+        if (mapped.getInt(position) != FrameRecordingFormat.FRAME_MAGIC) {
+            throw new IOException("Corrupt frame record at " + position);
+        }
+
+        boolean keyFrame = (mapped.getInt(position + 4) & FrameRecordingFormat.FLAG_KEY_FRAME) != 0;
+        int width = mapped.getInt(position + 8);
+        int height = mapped.getInt(position + 12);
+        int payloadInts = mapped.getInt(position + 24);
+
+        if (!keyFrame && (previous == null || previous.length != width * height)) {
+            throw new IOException("Frame at " + position + " has no frame to be decoded against");
+        }
+
+        // Frames are handed to other threads, every frame gets its own image
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ImageUtils.getIntData(frame);
+
+        IntBuffer payload = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+            .position(position + FrameRecordingFormat.FRAME_HEADER_BYTES)
+            .limit(position + FrameRecordingFormat.FRAME_HEADER_BYTES + payloadInts * 4)
+            .slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+        try {
+            FrameRecordingFormat.decode(payload, keyFrame ? null : previous, pixels, width * height);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt frame record at " + position, e);
+        }
+
+        // The image is never written to, its pixels are safe to decode the next frame against
+        previous = pixels;
+
+        return frame;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return index >= frameCount;
+    }
+}
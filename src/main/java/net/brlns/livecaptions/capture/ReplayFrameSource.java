@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Replays a directory of previously captured PNG frames, in file name order.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class ReplayFrameSource implements FrameSource {
+
+    private final File[] frames;
+    private final long frameIntervalNanos;
+
+    private int index = 0;
+    private long startNanos = 0;
+
+    /**
+     * @param directory the directory containing the frames
+     * @param frameIntervalMs the time between two frames, or 0 to replay as fast as frames are requested
+     */
+    public ReplayFrameSource(File directory, long frameIntervalMs) throws IOException {
+        File[] files = directory.listFiles((File dir, String name) -> name.toLowerCase().endsWith(".png"));
+        if (files == null) {
+            throw new IOException("Cannot list frames in " + directory);
+        }
+
+        Arrays.sort(files);
+
+        frames = files;
+        frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(frameIntervalMs);
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    @Nullable
+    @Override
+    public BufferedImage nextFrame() throws IOException {
+        if (isExhausted()) {
+            return null;
+        }
+
+        if (index == 0) {
+            startNanos = System.nanoTime();
+        } else if (frameIntervalNanos > 0) {
+            long waitNanos = startNanos + index * frameIntervalNanos - System.nanoTime();
+
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+
+        BufferedImage frame = ImageIO.read(frames[index++]);
+
+        if (frame != null && frame.getType() != BufferedImage.TYPE_INT_RGB) {
+            // Match what Robot gives us, so the pipeline takes its usual fast paths
+            BufferedImage converted = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics g = converted.getGraphics();
+            g.drawImage(frame, 0, 0, null);
+            g.dispose();
+
+            frame = converted;
+        }
+
+        return frame;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return index >= frames.length;
+    }
+}
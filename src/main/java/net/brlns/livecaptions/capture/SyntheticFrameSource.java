@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.capture;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Renders captions with a known ground truth, imitating Live Captions.
+ *
+ * Lines are typed out a few words at a time at the bottom of a black box,
+ * scrolling up as new lines begin. Each finished line is held on screen for
+ * a few frames, the same way captions sit still during pauses in speech.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+    private final List<String[]> script = new ArrayList<>();
+    private final List<String> groundTruth;
+
+    private final int width;
+    private final int height;
+    private final int visibleLines;
+    private final int wordsPerFrame;
+    private final int holdFrames;
+    private final long frameIntervalNanos;
+
+    private final Font font;
+
+    private int lineIndex = 0;
+    private int wordCount = 0;
+    private int heldFrames = 0;
+
+    private int framesRendered = 0;
+    private long startNanos = 0;
+
+    /**
+     * @param linesIn the caption lines to type out, in order
+     * @param widthIn frame width
+     * @param heightIn frame height
+     * @param fontSize font size in pixels
+     * @param visibleLinesIn how many lines fit in the caption box
+     * @param wordsPerFrameIn how many words are added to the current line each frame
+     * @param holdFramesIn how many frames a finished line stays still before the next one starts
+     * @param frameIntervalMs the time between two frames, or 0 to render as fast as frames are requested
+     */
+    public SyntheticFrameSource(List<String> linesIn, int widthIn, int heightIn, int fontSize,
+        int visibleLinesIn, int wordsPerFrameIn, int holdFramesIn, long frameIntervalMs) {
+        groundTruth = Collections.unmodifiableList(new ArrayList<>(linesIn));
+
+        for (String line : groundTruth) {
+            script.add(line.trim().split("\\s+"));
+        }
+
+        width = widthIn;
+        height = heightIn;
+        visibleLines = Math.max(1, visibleLinesIn);
+        wordsPerFrame = Math.max(1, wordsPerFrameIn);
+        holdFrames = Math.max(0, holdFramesIn);
+        frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(frameIntervalMs);
+
+        font = new Font("SansSerif", Font.PLAIN, fontSize);
+    }
+
+    /**
+     * The lines a perfect transcript of this source would contain.
+     */
+    public List<String> getGroundTruth() {
+        return groundTruth;
+    }
+
+    /**
+     * The text shown on the last rendered frame, one line per caption line.
+     */
+    public String getVisibleText() {
+        StringBuilder builder = new StringBuilder();
+
+        forEachVisibleLine((String line) -> {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+
+            builder.append(line);
+        });
+
+        return builder.toString();
+    }
+
+    @Nullable
+    @Override
+    public BufferedImage nextFrame() {
+        if (isExhausted()) {
+            return null;
+        }
+
+        if (framesRendered == 0) {
+            startNanos = System.nanoTime();
+        } else if (frameIntervalNanos > 0) {
+            long waitNanos = startNanos + framesRendered * frameIntervalNanos - System.nanoTime();
+
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+
+        advance();
+
+        framesRendered++;
+
+        return render();
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return lineIndex >= script.size();
+    }
+
+    private void advance() {
+        String[] words = script.get(lineIndex);
+
+        if (wordCount < words.length) {
+            wordCount = Math.min(words.length, wordCount + wordsPerFrame);
+        } else if (heldFrames < holdFrames) {
+            heldFrames++;
+        } else {
+            lineIndex++;
+            wordCount = lineIndex < script.size() ? Math.min(script.get(lineIndex).length, wordsPerFrame) : 0;
+            heldFrames = 0;
+        }
+    }
+
+    private BufferedImage render() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D g = image.createGraphics();
+
+        try {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, width, height);
+
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.setFont(font);
+
+            FontMetrics metrics = g.getFontMetrics();
+            int lineHeight = metrics.getHeight() * 4 / 3;// Live Captions leaves some room between lines
+            int margin = Math.max(4, lineHeight / 2);
+
+            List<String> lines = new ArrayList<>();
+            forEachVisibleLine(lines::add);
+
+            int y = height - margin - (lines.size() - 1) * lineHeight - metrics.getDescent();
+
+            for (String line : lines) {
+                g.drawString(line, margin, y);
+
+                y += lineHeight;
+            }
+        } finally {
+            g.dispose();
+        }
+
+        return image;
+    }
+
+    private void forEachVisibleLine(Consumer<String> consumer) {
+        if (script.isEmpty()) {
+            return;
+        }
+
+        int last = Math.min(lineIndex, script.size() - 1);
+        int first = Math.max(0, last - visibleLines + 1);
+
+        for (int i = first; i <= last; i++) {
+            String[] words = script.get(i);
+            int count = i == lineIndex ? wordCount : words.length;
+
+            consumer.accept(String.join(" ", Arrays.copyOf(words, count)));
+        }
+    }
+}
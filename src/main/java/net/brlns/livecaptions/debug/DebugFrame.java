@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.debug;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.Getter;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * A frame as OCR saw it, kept until it is known how OCR and the stabilizer fared with it.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Getter
+public class DebugFrame {
+
+    private final String regionName;
+    private final long sequence;
+    private final long timestampMs = System.currentTimeMillis();
+
+    private final BufferedImage raw;
+    private final BufferedImage filtered;
+
+    @Nullable
+    private volatile String text = null;
+
+    private final List<String> committedLines = new ArrayList<>();
+
+    /**
+     * @param filteredIn a copy of the filtered frame, the filter's own buffer is reused
+     */
+    public DebugFrame(String regionNameIn, long sequenceIn, BufferedImage rawIn, BufferedImage filteredIn) {
+        regionName = regionNameIn;
+        sequence = sequenceIn;
+        raw = rawIn;
+        filtered = filteredIn;
+    }
+
+    public void setText(@Nullable String textIn) {
+        text = textIn;
+    }
+
+    /**
+     * Called by the stabilizer's thread before the frame is handed to the recorder.
+     */
+    public void addCommittedLine(String line) {
+        committedLines.add(line);
+    }
+
+    public List<String> getCommittedLines() {
+        return Collections.unmodifiableList(committedLines);
+    }
+
+    /**
+     * OCR threw, timed out, or read nothing.
+     */
+    public boolean isFailed() {
+        String current = text;
+
+        return current == null || current.isBlank();
+    }
+}
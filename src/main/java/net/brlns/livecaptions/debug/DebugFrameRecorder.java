@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.debug;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.imageio.ImageIO;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.LiveCaptionsLogger;
+import net.brlns.livecaptions.Settings;
+
+/**
+ * Saves debug frames on a background thread while debug mode is on.
+ *
+ * Each sampled frame is saved as the raw capture, the filtered image OCR
+ * actually read and a text file with what OCR read and which lines it
+ * finished, in a debug_frames folder that is kept under DebugFramesMaxMB by
+ * deleting the oldest frames. Encoding never happens on the capture or OCR
+ * threads, frames are dropped when the encoder falls behind.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class DebugFrameRecorder {
+
+    private static final int QUEUE_SIZE = 8;
+
+    private final Supplier<Settings> config;
+    private final Supplier<File> outputDirectory;
+    private final Consumer<Throwable> errorHandler;
+
+    private final ThreadPoolExecutor executor;
+
+    // Only used on the encoder thread
+    private final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss-SSS");
+    private long directoryBytes = -1;
+
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+
+    /**
+     * @param outputDirectoryIn supplies the output folder, frames go in its debug_frames folder
+     */
+    public DebugFrameRecorder(Supplier<Settings> configIn, Supplier<File> outputDirectoryIn, Consumer<Throwable> errorHandlerIn) {
+        config = configIn;
+        outputDirectory = outputDirectoryIn;
+        errorHandler = errorHandlerIn;
+
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE), (Runnable r) -> {
+                Thread thread = new Thread(r, "Debug-Frame-Recorder");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+
+                return thread;
+            });
+    }
+
+    /**
+     * Whether a frame should be kept around until its outcome is known, cheap enough to call for every frame.
+     */
+    public boolean wants(long sequence) {
+        Settings settings = config.get();
+
+        if (!settings.isDebugMode()) {
+            return false;
+        }
+
+        if (settings.getDebugFrameSampling() == DebugFrameSampling.EVERY_NTH_FRAME) {
+            return sequence % LiveCaptionsLogger.clamp(settings.getDebugFrameInterval(), 1, 10000) == 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Saves the frame if the sampling policy asks for it, without waiting for the disk.
+     */
+    public void offer(DebugFrame frame) {
+        DebugFrameSampling sampling = config.get().getDebugFrameSampling();
+
+        if ((sampling == DebugFrameSampling.OCR_FAILURE && !frame.isFailed())
+            || (sampling == DebugFrameSampling.LINE_COMMIT && frame.getCommittedLines().isEmpty())) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        sampled.incrementAndGet();
+
+        execute(() -> save(frame));
+    }
+
+    /**
+     * Overwrites a single image in the output folder, e.g. to show the current capture area.
+     */
+    public void savePreview(BufferedImage image, String fileName) {
+        execute(() -> {
+            try {
+                ImageIO.write(image, "png", new File(outputDirectory.get(), fileName));
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void save(DebugFrame frame) {
+        long start = System.nanoTime();
+
+        try {
+            File directory = new File(outputDirectory.get(), "debug_frames");
+
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+
+            String prefix = formatter.format(new Date(frame.getTimestampMs())) + "_"
+                + frame.getRegionName().replaceAll("[^A-Za-z0-9_-]", "_") + "_" + frame.getSequence();
+
+            List<String> lines = new ArrayList<>();
+            lines.add("Region: " + frame.getRegionName());
+            lines.add("OCR sequence: " + frame.getSequence());
+            lines.add("Status: " + (frame.getText() == null ? "OCR failed or timed out"
+                : frame.isFailed() ? "no text" : "ok"));
+            lines.add("Finished lines: " + frame.getCommittedLines());
+            lines.add("");
+
+            if (frame.getText() != null) {
+                lines.add(frame.getText());
+            }
+
+            File[] files = {
+                new File(directory, prefix + "_raw.png"),
+                new File(directory, prefix + "_filtered.png"),
+                new File(directory, prefix + "_ocr.txt")
+            };
+
+            ImageIO.write(frame.getRaw(), "png", files[0]);
+            ImageIO.write(frame.getFiltered(), "png", files[1]);
+            Files.write(files[2].toPath(), lines, StandardCharsets.UTF_8);
+
+            saved.incrementAndGet();
+
+            if (directoryBytes < 0) {
+                directoryBytes = sizeOf(directory.listFiles());
+            } else {
+                directoryBytes += sizeOf(files);
+            }
+
+            enforceLimit(directory);
+        } catch (IOException | RuntimeException e) {
+            errorHandler.accept(e);
+        } finally {
+            encodeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Deletes the oldest frames until the folder fits in DebugFramesMaxMB.
+     */
+    private void enforceLimit(File directory) {
+        long maxBytes = LiveCaptionsLogger.clamp(config.get().getDebugFramesMaxMB(), 1, 10240) * 1024L * 1024L;
+
+        if (directoryBytes <= maxBytes) {
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        // Names start with the capture time
+        Arrays.sort(files);
+
+        directoryBytes = sizeOf(files);
+
+        for (File file : files) {
+            if (directoryBytes <= maxBytes) {
+                break;
+            }
+
+            long length = file.length();
+
+            if (file.delete()) {
+                directoryBytes -= length;
+                deleted.incrementAndGet();
+            }
+        }
+    }
+
+    private static long sizeOf(File[] files) {
+        long size = 0;
+
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Saves what is already queued and stops.
+     */
+    public void close() {
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getStatsSummary() {
+        long count = saved.get();
+
+        return String.format("%d sampled, %d saved (avg %.1fms), %d not matching %s, %d dropped, %d files rotated out",
+            sampled.get(), count, count == 0 ? 0 : encodeNanos.get() / (double)count / 1_000_000d,
+            skipped.get(), config.get().getDebugFrameSampling(), dropped.get(), deleted.get());
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.debug;
+
+/**
+ * Which OCR'd frames are saved while debug mode is on.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public enum DebugFrameSampling {
+    /**
+     * Every DebugFrameInterval-th frame that goes through OCR.
+     */
+    EVERY_NTH_FRAME,
+    /**
+     * Frames OCR failed on, timed out on, or read no text from.
+     */
+    OCR_FAILURE,
+    /**
+     * Frames that finished a line.
+     */
+    LINE_COMMIT
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of durations, recording does not allocate.
+ *
+ * Values are kept in microseconds. Up to 16µs every value gets its own
+ * bucket, past that every power of two is split into 8 buckets, like
+ * HdrHistogram with one significant digit, so any recorded value is
+ * reported within 12.5% of itself. Durations up to about 19 hours fit,
+ * longer ones land in the last bucket.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BITS = 4;
+    private static final int MAX_EXPONENT = 35;
+
+    public static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - LINEAR_BITS + 1) * SUB_BUCKETS;
+
+    private static final long MAX_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)), MAX_MICROS);
+
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+    }
+
+    /**
+     * Records the time elapsed since startNanos, a System.nanoTime() value.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSumMicros() {
+        return sumMicros.get();
+    }
+
+    /**
+     * Copies the bucket counts, into must hold BUCKET_COUNT values.
+     *
+     * Recording does not stop while copying, so the copy may be off by the
+     * values recorded in the meantime.
+     */
+    public void copyCounts(long[] into) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            into[i] = counts.get(i);
+        }
+    }
+
+    /**
+     * The value at the given quantile of a copy of the bucket counts, in microseconds.
+     *
+     * @param quantile between 0 and 1
+     * @return the highest value of the bucket the quantile falls in, 0 if there are no values
+     */
+    public static long valueAtQuantile(long[] bucketCounts, double quantile) {
+        long total = 0;
+        for (long bucketCount : bucketCounts) {
+            total += bucketCount;
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(quantile * total));
+        long seen = 0;
+
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+
+            if (seen >= rank) {
+                return upperBoundOf(i) - 1;
+            }
+        }
+
+        return upperBoundOf(bucketCounts.length - 1) - 1;
+    }
+
+    /**
+     * The highest value recorded in a copy of the bucket counts, within the bucket precision.
+     */
+    public static long maxValue(long[] bucketCounts) {
+        for (int i = bucketCounts.length - 1; i >= 0; i--) {
+            if (bucketCounts[i] > 0) {
+                return upperBoundOf(i) - 1;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * The bucket a value in microseconds falls in.
+     */
+    public static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int)micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int)(micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The first value in microseconds past the given bucket.
+     */
+    public static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket + 1;
+        }
+
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+
+        return (long)(SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+}
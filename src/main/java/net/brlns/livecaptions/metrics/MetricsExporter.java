@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Periodically appends a snapshot of every metric to a CSV file.
+ *
+ * Counters are written with their total and the increase since the last
+ * snapshot, histograms with their total count and the count, mean and
+ * percentiles of the values recorded since the last snapshot, so a day of
+ * snapshots charts how tail latency moves over the day. Durations are in
+ * milliseconds.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class MetricsExporter {
+
+    private static final String HEADER = "timestamp,metric,labels,value,interval_count,mean_ms,p50_ms,p90_ms,p99_ms,p999_ms,max_ms";
+
+    private final MetricsRegistry registry;
+    private final File file;
+    private final Consumer<Throwable> errorHandler;
+
+    private final ScheduledExecutorService scheduler;
+
+    // What every metric looked like at the previous snapshot
+    private final Map<MetricsRegistry.Metric, long[]> previousCounts = new IdentityHashMap<>();
+    private final Map<MetricsRegistry.Metric, long[]> previousTotals = new IdentityHashMap<>();
+
+    private final long[] intervalCounts = new long[LatencyHistogram.BUCKET_COUNT];
+
+    /**
+     * @param fileIn the CSV file, appended to if it exists
+     * @param intervalMs time between snapshots
+     */
+    public MetricsExporter(MetricsRegistry registryIn, File fileIn, long intervalMs, Consumer<Throwable> errorHandlerIn) {
+        registry = registryIn;
+        file = fileIn;
+        errorHandler = errorHandlerIn;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "Metrics-Export");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(this::export, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a last snapshot and stops.
+     */
+    public void close() {
+        scheduler.shutdown();
+
+        try {
+            if (scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                export();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    synchronized void export() {
+        try {
+            List<String> rows = new ArrayList<>();
+
+            if (!file.exists()) {
+                rows.add(HEADER);
+            }
+
+            String timestamp = Instant.now().toString();
+
+            for (MetricsRegistry.Metric metric : registry.getMetrics()) {
+                rows.add(toRow(timestamp, metric));
+            }
+
+            Files.write(file.toPath(), rows, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException | RuntimeException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    private String toRow(String timestamp, MetricsRegistry.Metric metric) {
+        StringBuilder row = new StringBuilder();
+        row.append(timestamp).append(',')
+            .append(metric.getName()).append(',')
+            .append(escape(formatLabels(metric.getLabels()))).append(',');
+
+        switch (metric.getType()) {
+            case COUNTER: {
+                long value = metric.getCounter().getAsLong();
+                long[] previous = previousTotals.computeIfAbsent(metric, (m) -> new long[1]);
+
+                row.append(value).append(',').append(value - previous[0]).append(",,,,,,");
+                previous[0] = value;
+                break;
+            }
+            case GAUGE:
+                row.append(String.format(Locale.ROOT, "%s", metric.getGauge().getAsDouble())).append(",,,,,,,");
+                break;
+            case HISTOGRAM: {
+                LatencyHistogram histogram = metric.getHistogram();
+
+                long[] previous = previousCounts.computeIfAbsent(metric, (m) -> new long[LatencyHistogram.BUCKET_COUNT]);
+                long[] previousTotal = previousTotals.computeIfAbsent(metric, (m) -> new long[2]);
+
+                long count = histogram.getCount();
+                long sumMicros = histogram.getSumMicros();
+
+                // Only what was recorded since the previous snapshot
+                histogram.copyCounts(intervalCounts);
+                for (int i = 0; i < intervalCounts.length; i++) {
+                    long current = intervalCounts[i];
+
+                    intervalCounts[i] = current - previous[i];
+                    previous[i] = current;
+                }
+
+                long intervalCount = count - previousTotal[0];
+                long intervalSumMicros = sumMicros - previousTotal[1];
+
+                previousTotal[0] = count;
+                previousTotal[1] = sumMicros;
+
+                row.append(count).append(',')
+                    .append(intervalCount).append(',')
+                    .append(toMs(intervalCount == 0 ? 0 : intervalSumMicros / (double)intervalCount)).append(',')
+                    .append(toMs(LatencyHistogram.valueAtQuantile(intervalCounts, 0.5))).append(',')
+                    .append(toMs(LatencyHistogram.valueAtQuantile(intervalCounts, 0.9))).append(',')
+                    .append(toMs(LatencyHistogram.valueAtQuantile(intervalCounts, 0.99))).append(',')
+                    .append(toMs(LatencyHistogram.valueAtQuantile(intervalCounts, 0.999))).append(',')
+                    .append(toMs(LatencyHistogram.maxValue(intervalCounts)));
+                break;
+            }
+            case INFO: {
+                String value = metric.getInfo().get();
+
+                row.append(escape(value != null ? value : "")).append(",,,,,,,");
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown metric type " + metric.getType());
+        }
+
+        return row.toString();
+    }
+
+    private static String toMs(double micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000d);
+    }
+
+    private static String formatLabels(Map<String, String> labels) {
+        StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+
+            builder.append(label.getKey()).append('=').append(label.getValue());
+        }
+
+        return builder.toString();
+    }
+
+    private static String escape(String value) {
+        if (value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+
+        return value;
+    }
+}
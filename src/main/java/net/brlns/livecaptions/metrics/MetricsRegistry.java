@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import lombok.Getter;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * The metrics exposed by the running components.
+ *
+ * Components keep measuring into their own counters and histograms, the
+ * registry only knows where to read them from, so registering adds nothing
+ * to the hot path. Metrics are meant to be registered once at startup.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class MetricsRegistry {
+
+    public enum Type {
+        /**
+         * A value that only goes up.
+         */
+        COUNTER,
+        /**
+         * A value that goes up and down.
+         */
+        GAUGE,
+        /**
+         * A distribution of durations.
+         */
+        HISTOGRAM,
+        /**
+         * A piece of text, such as a file name, that may change over time.
+         */
+        INFO
+    }
+
+    @Getter
+    public static class Metric {
+
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final Map<String, String> labels;
+
+        @Nullable
+        private final LongSupplier counter;
+        @Nullable
+        private final DoubleSupplier gauge;
+        @Nullable
+        private final LatencyHistogram histogram;
+        @Nullable
+        private final Supplier<String> info;
+
+        private Metric(String nameIn, String helpIn, Type typeIn, Map<String, String> labelsIn,
+            @Nullable LongSupplier counterIn, @Nullable DoubleSupplier gaugeIn, @Nullable LatencyHistogram histogramIn,
+            @Nullable Supplier<String> infoIn) {
+            name = nameIn;
+            help = helpIn;
+            type = typeIn;
+            labels = labelsIn;
+            counter = counterIn;
+            gauge = gaugeIn;
+            histogram = histogramIn;
+            info = infoIn;
+        }
+    }
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param labels label names and values, alternating, e.g. "region", "Main"
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        metrics.add(new Metric(name, help, Type.COUNTER, toMap(labels), value, null, null, null));
+    }
+
+    /**
+     * @param labels label names and values, alternating, e.g. "region", "Main"
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        metrics.add(new Metric(name, help, Type.GAUGE, toMap(labels), null, value, null, null));
+    }
+
+    /**
+     * @param labels label names and values, alternating, e.g. "region", "Main"
+     */
+    public void histogram(String name, String help, LatencyHistogram histogram, String... labels) {
+        metrics.add(new Metric(name, help, Type.HISTOGRAM, toMap(labels), null, null, histogram, null));
+    }
+
+    /**
+     * @param value the current text, null or empty when there is none
+     * @param labels label names and values, alternating, e.g. "region", "Main"
+     */
+    public void info(String name, String help, Supplier<String> value, String... labels) {
+        metrics.add(new Metric(name, help, Type.INFO, toMap(labels), null, null, null, value));
+    }
+
+    public List<Metric> getMetrics() {
+        return Collections.unmodifiableList(new ArrayList<>(metrics));
+    }
+
+    private static Map<String, String> toMap(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+
+        Map<String, String> map = new LinkedHashMap<>();
+
+        for (int i = 0; i < labels.length; i += 2) {
+            map.put(labels[i], labels[i + 1]);
+        }
+
+        return Collections.unmodifiableMap(map);
+    }
+}
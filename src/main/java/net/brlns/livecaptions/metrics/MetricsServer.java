@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Serves the registered metrics in the Prometheus text format on
+ * http://localhost:port/metrics.
+ *
+ * Everything is read from the registry when a scrape comes in, nothing is
+ * computed between scrapes. Histograms are exposed in seconds with a fixed
+ * set of buckets, summed up from the finer buckets of LatencyHistogram.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class MetricsServer {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Bucket bounds exposed to Prometheus, in seconds.
+     */
+    private static final double[] BUCKET_BOUNDS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+
+    private final MetricsRegistry registry;
+    private final Consumer<Throwable> errorHandler;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts listening on the loopback address only.
+     *
+     * @param port the port to listen on, 0 picks a free one
+     */
+    public MetricsServer(MetricsRegistry registryIn, int port, Consumer<Throwable> errorHandlerIn) throws IOException {
+        registry = registryIn;
+        errorHandler = errorHandlerIn;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        executor = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "Metrics-Server");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body;
+            try {
+                body = render().getBytes(StandardCharsets.UTF_8);
+            } catch (RuntimeException e) {
+                errorHandler.accept(e);
+
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    String render() {
+        // Prometheus wants all the series of a metric together, under a single HELP and TYPE
+        Map<String, List<MetricsRegistry.Metric>> families = new LinkedHashMap<>();
+
+        for (MetricsRegistry.Metric metric : registry.getMetrics()) {
+            families.computeIfAbsent(metric.getName(), (name) -> new ArrayList<>()).add(metric);
+        }
+
+        StringBuilder out = new StringBuilder();
+        long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+
+        for (List<MetricsRegistry.Metric> family : families.values()) {
+            MetricsRegistry.Metric first = family.get(0);
+
+            String name = first.getType() == MetricsRegistry.Type.HISTOGRAM
+                ? first.getName() + "_seconds" : first.getName();
+
+            out.append("# HELP ").append(name).append(' ').append(escapeHelp(first.getHelp())).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(typeOf(first.getType())).append('\n');
+
+            for (MetricsRegistry.Metric metric : family) {
+                switch (metric.getType()) {
+                    case COUNTER:
+                        appendSample(out, name, metric.getLabels(), null, null);
+                        out.append(metric.getCounter().getAsLong()).append('\n');
+                        break;
+                    case GAUGE:
+                        appendSample(out, name, metric.getLabels(), null, null);
+                        out.append(formatDouble(metric.getGauge().getAsDouble())).append('\n');
+                        break;
+                    case HISTOGRAM:
+                        appendHistogram(out, name, metric, counts);
+                        break;
+                    case INFO: {
+                        String value = metric.getInfo().get();
+
+                        appendSample(out, name, metric.getLabels(), "value", value != null ? value : "");
+                        out.append("1\n");
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("Unknown metric type " + metric.getType());
+                }
+            }
+        }
+
+        return out.toString();
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, MetricsRegistry.Metric metric, long[] counts) {
+        LatencyHistogram histogram = metric.getHistogram();
+
+        long sumMicros = histogram.getSumMicros();
+        histogram.copyCounts(counts);
+
+        // A bucket is counted under the first bound its upper edge fits in
+        long cumulative = 0;
+        int bucket = 0;
+
+        for (double bound : BUCKET_BOUNDS) {
+            long boundMicros = (long)(bound * 1_000_000);
+
+            while (bucket < counts.length && LatencyHistogram.upperBoundOf(bucket) <= boundMicros) {
+                cumulative += counts[bucket++];
+            }
+
+            appendSample(out, name + "_bucket", metric.getLabels(), "le", formatDouble(bound));
+            out.append(cumulative).append('\n');
+        }
+
+        while (bucket < counts.length) {
+            cumulative += counts[bucket++];
+        }
+
+        appendSample(out, name + "_bucket", metric.getLabels(), "le", "+Inf");
+        out.append(cumulative).append('\n');
+
+        appendSample(out, name + "_sum", metric.getLabels(), null, null);
+        out.append(formatDouble(sumMicros / 1_000_000d)).append('\n');
+
+        appendSample(out, name + "_count", metric.getLabels(), null, null);
+        out.append(cumulative).append('\n');
+    }
+
+    private static void appendSample(StringBuilder out, String name, Map<String, String> labels,
+        @Nullable String extraLabel, @Nullable String extraValue) {
+        out.append(name);
+
+        if (labels.isEmpty() && extraLabel == null) {
+            out.append(' ');
+            return;
+        }
+
+        out.append('{');
+
+        boolean first = true;
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+
+            first = false;
+            out.append(label.getKey()).append("=\"").append(escapeLabel(label.getValue())).append('"');
+        }
+
+        if (extraLabel != null) {
+            if (!first) {
+                out.append(',');
+            }
+
+            out.append(extraLabel).append("=\"").append(escapeLabel(extraValue)).append('"');
+        }
+
+        out.append("} ");
+    }
+
+    private static String typeOf(MetricsRegistry.Type type) {
+        switch (type) {
+            case COUNTER:
+                return "counter";
+            case HISTOGRAM:
+                return "histogram";
+            default:
+                return "gauge";
+        }
+    }
+
+    private static String formatDouble(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long)value);
+        }
+
+        return Double.toString(value);
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
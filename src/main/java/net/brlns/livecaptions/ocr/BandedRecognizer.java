@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.ocr;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import net.brlns.livecaptions.capture.FrameChangeDetector;
+import net.sourceforge.tess4j.TesseractException;
+
+/**
+ * Incremental OCR over horizontal text bands.
+ *
+ * Live Captions usually only changes its bottom line while the lines above
+ * stay put or scroll up untouched. The frame is split into bands of text rows
+ * using a row projection profile, and only bands whose pixels were not seen
+ * in the previous frame go through Tesseract. The hash does not depend on the
+ * position of the band, so lines that merely scrolled up are not OCR'd again.
+ *
+ * Frames may be recognized on several OCR workers at once and finish out of
+ * order, the cache only ever moves forward to the bands of a newer frame so
+ * a late older frame does not overwrite them.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class BandedRecognizer {
+
+    /**
+     * Gray levels at least this bright count as text, we are looking for white text on dark backgrounds.
+     */
+    private static final int INK_THRESHOLD = 128;
+
+    /**
+     * Gaps of up to this many empty rows do not split a band, keeps i's and j's together.
+     */
+    private static final int MAX_GAP_ROWS = 2;
+
+    /**
+     * Bands shorter than this are considered noise.
+     */
+    private static final int MIN_BAND_ROWS = 4;
+
+    /**
+     * Rows of background kept around each band, Tesseract does not like glyphs touching the edge.
+     */
+    private static final int PADDING_ROWS = 4;
+
+    /**
+     * Noisy frames are OCR'd as a whole, splitting them would be slower than not doing it.
+     */
+    private static final int MAX_BANDS = 8;
+
+    private Map<Long, String> bandCache = new HashMap<>();
+    // The frame the cache holds the bands of, guarded by this
+    private long cacheSequence = -1;
+
+    private final AtomicLong rowsTotal = new AtomicLong();
+    private final AtomicLong rowsRecognized = new AtomicLong();
+    private final AtomicLong bandsTotal = new AtomicLong();
+    private final AtomicLong bandsReused = new AtomicLong();
+
+    /**
+     * OCRs the bands of the frame that changed since the previous frame.
+     *
+     * @param sequence the capture order of the frame, newer frames have higher numbers
+     * @return the text of every band, one band per line
+     */
+    public String recognize(TesseractEngine engine, GrayFrame frame, long sequence) throws TesseractException {
+        rowsTotal.addAndGet(frame.getHeight());
+
+        List<int[]> bands = findBands(frame);
+
+        if (bands.size() > MAX_BANDS) {
+            rowsRecognized.addAndGet(frame.getHeight());
+
+            return engine.recognize(frame);
+        }
+
+        Map<Long, String> previousCache;
+        synchronized (this) {
+            previousCache = bandCache;
+        }
+
+        long[] hashes = new long[bands.size()];
+        String[] texts = new String[bands.size()];
+
+        for (int i = 0; i < bands.size(); i++) {
+            int[] band = bands.get(i);
+
+            hashes[i] = FrameChangeDetector.hash(frame, band[0], band[1]);
+            texts[i] = previousCache.get(hashes[i]);
+
+            if (texts[i] == null) {
+                rowsRecognized.addAndGet(band[1]);
+            } else {
+                bandsReused.incrementAndGet();
+            }
+        }
+
+        // Only the bands without cached text go through Tesseract
+        engine.recognizeBands(frame, bands, texts);
+
+        Map<Long, String> newCache = new HashMap<>();
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < bands.size(); i++) {
+            String text = texts[i].strip();
+
+            bandsTotal.incrementAndGet();
+            newCache.put(hashes[i], text);
+
+            if (!text.isEmpty()) {
+                if (builder.length() > 0) {
+                    builder.append('\n');
+                }
+
+                builder.append(text);
+            }
+        }
+
+        synchronized (this) {
+            if (sequence > cacheSequence) {
+                bandCache = newCache;
+                cacheSequence = sequence;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Forgets the text cached for the previous frame.
+     */
+    public synchronized void reset() {
+        bandCache = new HashMap<>();
+    }
+
+    public String getStatsSummary() {
+        long total = rowsTotal.get();
+
+        return String.format("bands: %d, reused: %d, rows OCR'd: %d of %d (%.1f%%)",
+            bandsTotal.get(), bandsReused.get(), rowsRecognized.get(), total,
+            total == 0 ? 0 : rowsRecognized.get() * 100d / total);
+    }
+
+    /**
+     * Splits the frame into horizontal bands of text using a row projection profile.
+     *
+     * @return the top row and height of each band, including padding
+     */
+    public static List<int[]> findBands(GrayFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        ByteBuffer buffer = frame.getBuffer();
+
+        boolean[] inkRows = new boolean[height];
+
+        for (int y = 0; y < height; y++) {
+            inkRows[y] = hasInk(buffer, y * frame.getStride(), width);
+        }
+
+        List<int[]> bands = new ArrayList<>();
+        int lastInkEnd = -1;
+
+        int y = 0;
+        while (y < height) {
+            if (!inkRows[y]) {
+                y++;
+                continue;
+            }
+
+            int start = y;
+            int end = y;// Last row with ink
+
+            while (y < height && y - end <= MAX_GAP_ROWS) {
+                if (inkRows[y]) {
+                    end = y;
+                }
+
+                y++;
+            }
+
+            if (end - start + 1 >= MIN_BAND_ROWS) {
+                int top = Math.max(0, start - PADDING_ROWS);
+                int bottom = Math.min(height - 1, end + PADDING_ROWS);
+
+                if (!bands.isEmpty()) {
+                    int[] last = bands.get(bands.size() - 1);
+
+                    if (last[0] + last[1] > top) {
+                        // Split the padding between the two bands so they don't overlap
+                        int middle = (lastInkEnd + start) / 2 + 1;
+
+                        last[1] = middle - last[0];
+                        top = middle;
+                    }
+                }
+
+                bands.add(new int[]{top, bottom - top + 1});
+                lastInkEnd = end;
+            }
+        }
+
+        return bands;
+    }
+
+    private static boolean hasInk(ByteBuffer pixels, int offset, int width) {
+        for (int i = offset; i < offset + width; i++) {
+            if ((pixels.get(i) & 0xFF) >= INK_THRESHOLD) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.ocr;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import lombok.Getter;
+import net.brlns.livecaptions.util.ImageUtils;
+
+/**
+ * An 8 bit grayscale frame stored in a reusable direct buffer.
+ *
+ * This is the exact layout TessBaseAPISetImage expects (one byte per pixel,
+ * rows of getStride() bytes), so frames can be handed to Tesseract as they are
+ * without going through tess4j's BufferedImage conversion.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class GrayFrame {
+
+    private ByteBuffer buffer;
+
+    @Getter
+    private int width;
+    @Getter
+    private int height;
+
+    /**
+     * Resizes the frame, the buffer is only reallocated if it is too small.
+     */
+    public void resize(int widthIn, int heightIn) {
+        width = widthIn;
+        height = heightIn;
+
+        int size = width * height;
+
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    /**
+     * Bytes per row, rows are tightly packed.
+     */
+    public int getStride() {
+        return width;
+    }
+
+    /**
+     * The backing buffer, only the first width * height bytes are meaningful.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int get(int x, int y) {
+        return buffer.get(y * width + x) & 0xFF;
+    }
+
+    /**
+     * Copies the frame into a new image, meant for debugging purposes only.
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        source.get(ImageUtils.getByteData(image), 0, width * height);
+
+        return image;
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.ocr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.metrics.MetricsRegistry;
+import net.brlns.livecaptions.util.Nullable;
+import net.sourceforge.tess4j.TesseractException;
+
+/**
+ * A supervised OCR worker with a bounded job queue.
+ *
+ * Tesseract can hang at a native level with some images, and interrupting it
+ * is not safe (libtesseract.so can crash the JVM), so instead of interrupting
+ * the call, a watchdog abandons the stuck thread, quarantines its engine and
+ * starts a replacement thread. Results from abandoned threads are discarded.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class OcrWorker {
+
+    private static final long WATCHDOG_INTERVAL_MS = 250;
+
+    /**
+     * The OCR step of a job, runs on the worker thread with an engine borrowed from the pool.
+     */
+    @FunctionalInterface
+    public interface Recognizer {
+
+        String recognize(TesseractEngine engine) throws TesseractException;
+    }
+
+    private static class Job {
+
+        private final Recognizer recognizer;
+        private final Consumer<String> callback;
+        @Nullable
+        private final Runnable onSettled;
+
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private Job(Recognizer recognizerIn, Consumer<String> callbackIn, @Nullable Runnable onSettledIn) {
+            recognizer = recognizerIn;
+            callback = callbackIn;
+            onSettled = onSettledIn;
+        }
+    }
+
+    private final String name;
+    private final TesseractEnginePool enginePool;
+    private final Consumer<Throwable> errorHandler;
+
+    private final BlockingQueue<Job> queue;
+    private final ScheduledExecutorService watchdog;
+
+    private final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicInteger hungThreads = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile long deadlineMs = 3000;
+    private volatile boolean running = true;
+
+    private volatile WorkerSlot slot;
+
+    /**
+     * @param nameIn used for naming the worker threads
+     * @param enginePoolIn the pool engines are borrowed from
+     * @param queueSize how many jobs may wait while one is being processed
+     * @param errorHandlerIn receives exceptions thrown by jobs
+     */
+    public OcrWorker(String nameIn, TesseractEnginePool enginePoolIn, int queueSize, Consumer<Throwable> errorHandlerIn) {
+        name = nameIn;
+        enginePool = enginePoolIn;
+        errorHandler = errorHandlerIn;
+
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+
+        watchdog = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, name + "-Watchdog");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        slot = startSlot();
+
+        watchdog.scheduleWithFixedDelay(this::checkDeadline,
+            WATCHDOG_INTERVAL_MS, WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * How long a single job may take before its thread is abandoned.
+     */
+    public void setDeadlineMs(long deadlineMsIn) {
+        deadlineMs = deadlineMsIn;
+    }
+
+    /**
+     * Queues a job, the callback is invoked on the worker thread
+     * with the recognized text.
+     *
+     * @return false if the queue is full and the job was abandoned
+     */
+    public boolean submit(Recognizer recognizer, Consumer<String> callback) {
+        return submit(recognizer, callback, 0);
+    }
+
+    /**
+     * Queues a job, waiting up to waitMs for room in the queue.
+     *
+     * Meant for replaying frames as fast as possible, where dropping
+     * frames because OCR is busy is not what we want.
+     *
+     * @return false if the queue stayed full and the job was abandoned
+     */
+    public boolean submit(Recognizer recognizer, Consumer<String> callback, long waitMs) {
+        return submit(recognizer, callback, null, waitMs);
+    }
+
+    /**
+     * Queues a job, waiting up to waitMs for room in the queue.
+     *
+     * @param onSettled runs once an accepted job is done with, whether it completed,
+     * failed, timed out or was dropped on shutdown
+     * @return false if the queue stayed full and the job was abandoned
+     */
+    public boolean submit(Recognizer recognizer, Consumer<String> callback, @Nullable Runnable onSettled, long waitMs) {
+        boolean accepted = false;
+
+        if (running) {
+            pending.incrementAndGet();
+
+            try {
+                accepted = queue.offer(new Job(recognizer, callback, onSettled), waitMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (!accepted) {
+                pending.decrementAndGet();
+            }
+        }
+
+        if (!accepted) {
+            abandoned.incrementAndGet();
+            return false;
+        }
+
+        queued.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Waits until every queued job has either completed, failed or timed out.
+     *
+     * @return false if jobs were still pending after timeoutMs
+     */
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        while (pending.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+
+            Thread.sleep(5);
+        }
+
+        return true;
+    }
+
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Jobs queued or running.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /**
+     * The share of time the worker thread spent running jobs since it was created, between 0 and 1.
+     */
+    public double getUtilization() {
+        return busyNanos.get() / (double)Math.max(1, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Exposes the counters of this worker, labelled with the worker name.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.counter("livecaptions_ocr_jobs_completed_total", "OCR jobs completed",
+            completed::get, "worker", name);
+        registry.counter("livecaptions_ocr_jobs_timed_out_total", "OCR jobs that exceeded their deadline",
+            timedOut::get, "worker", name);
+        registry.counter("livecaptions_ocr_jobs_abandoned_total", "OCR jobs turned away or dropped",
+            abandoned::get, "worker", name);
+        registry.gauge("livecaptions_ocr_queue_depth", "OCR jobs waiting",
+            queue::size, "worker", name);
+        registry.gauge("livecaptions_ocr_worker_utilization", "Share of time spent running OCR jobs",
+            this::getUtilization, "worker", name);
+    }
+
+    public String getStatsSummary() {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+
+        return String.format("%s: queued: %d, depth: %d, completed: %d, timed out: %d, abandoned: %d, hung threads: %d, utilization: %.1f%%",
+            name, queued.get(), queue.size(), completed.get(), timedOut.get(), abandoned.get(), hungThreads.get(),
+            busyNanos.get() * 100d / elapsedNanos);
+    }
+
+    /**
+     * Stops accepting jobs, pending jobs are abandoned.
+     */
+    public void shutdown() {
+        running = false;
+
+        watchdog.shutdownNow();
+
+        List<Job> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+
+        for (Job job : dropped) {
+            abandoned.incrementAndGet();
+            settle(job);
+        }
+
+        slot.thread.interrupt();// Only ever interrupts queue.take(), never a native call
+    }
+
+    private WorkerSlot startSlot() {
+        WorkerSlot newSlot = new WorkerSlot();
+
+        Thread thread = new Thread(() -> runSlot(newSlot), name + "-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+
+        newSlot.thread = thread;
+        thread.start();
+
+        return newSlot;
+    }
+
+    private void runSlot(WorkerSlot current) {
+        try {
+            while (running && !current.abandoned) {
+                Job job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    runJob(current, job);
+                } finally {
+                    settle(job);
+                }
+            }
+        } finally {
+            if (current.abandoned) {
+                // Our native call eventually returned, this thread is no longer hung
+                hungThreads.decrementAndGet();
+            }
+        }
+    }
+
+    private void runJob(WorkerSlot current, Job job) {
+        long start = System.nanoTime();
+
+        TesseractEngine engine = null;
+        try {
+            engine = enginePool.acquire();
+
+            current.engine = engine;
+            current.job = job;
+            current.busySince = System.nanoTime();
+
+            String text = job.recognizer.recognize(engine);
+
+            current.busySince = 0;
+
+            if (current.abandoned) {
+                // The watchdog gave up on us, whoever was waiting has moved on
+                return;
+            }
+
+            job.callback.accept(text);
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            current.busySince = 0;
+
+            errorHandler.accept(e);
+        } finally {
+            current.engine = null;
+            current.job = null;
+
+            if (engine != null) {
+                enginePool.release(engine);
+            }
+
+            busyNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void checkDeadline() {
+        WorkerSlot current = slot;
+
+        long busySince = current.busySince;
+        if (busySince == 0 || current.abandoned) {
+            return;
+        }
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - busySince);
+        if (elapsedMs < deadlineMs) {
+            return;
+        }
+
+        current.abandoned = true;
+
+        timedOut.incrementAndGet();
+        hungThreads.incrementAndGet();
+
+        TesseractEngine engine = current.engine;
+        if (engine != null) {
+            enginePool.quarantine(engine);
+        }
+
+        Job job = current.job;
+        if (job != null) {
+            settle(job);
+        }
+
+        log.error("OCR job exceeded its {}ms deadline, replacing {}", deadlineMs, current.thread.getName());
+
+        if (running) {
+            slot = startSlot();
+        }
+    }
+
+    private void settle(Job job) {
+        if (job.settled.compareAndSet(false, true)) {
+            pending.decrementAndGet();
+
+            if (job.onSettled != null) {
+                job.onSettled.run();
+            }
+        }
+    }
+
+    private static class WorkerSlot {
+
+        private Thread thread;
+
+        private volatile TesseractEngine engine;
+        private volatile Job job;
+        private volatile long busySince = 0;
+        private volatile boolean abandoned = false;
+    }
+}
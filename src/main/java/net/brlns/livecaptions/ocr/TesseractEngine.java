@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.ocr;
+
+import com.sun.jna.Pointer;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.ITessAPI.TessBaseAPI;
+import net.sourceforge.tess4j.ITessAPI.TessOcrEngineMode;
+import net.sourceforge.tess4j.TessAPI;
+import net.sourceforge.tess4j.TesseractException;
+import net.sourceforge.tess4j.util.ImageIOHelper;
+
+/**
+ * A long-lived, warmed up Tesseract handle.
+ *
+ * tess4j's Tesseract class creates and tears down the native API on every
+ * doOCR() call, reloading the traineddata each time. This class keeps a single
+ * TessBaseAPI alive instead, it must only be used by one thread at a time.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class TesseractEngine {
+
+    private final TessAPI api = TessAPI.INSTANCE;
+    private final TessBaseAPI handle;
+
+    @Getter
+    private final String dataPath;
+    @Getter
+    private final String language;
+
+    /**
+     * Time it took to create and initialize the native API, in nanoseconds.
+     */
+    @Getter
+    private final long initNanos;
+
+    private final AtomicLong recognitions = new AtomicLong();
+    private final AtomicLong recognitionNanos = new AtomicLong();
+
+    private boolean disposed = false;
+
+    public TesseractEngine(String dataPathIn, String languageIn) throws TesseractException {
+        dataPath = dataPathIn;
+        language = languageIn;
+
+        long start = System.nanoTime();
+
+        handle = api.TessBaseAPICreate();
+
+        if (api.TessBaseAPIInit2(handle, dataPath, language, TessOcrEngineMode.OEM_DEFAULT) != 0) {
+            api.TessBaseAPIDelete(handle);
+
+            throw new TesseractException("Could not initialize Tesseract with language " + language + " at " + dataPath);
+        }
+
+        initNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Checks whether this engine was initialized with the given data path and language.
+     */
+    public boolean matches(String dataPathIn, String languageIn) {
+        return dataPath.equals(dataPathIn) && language.equals(languageIn);
+    }
+
+    /**
+     * Runs OCR on the provided image.
+     *
+     * Images with less than 8 bits per pixel, e.g. TYPE_BYTE_BINARY, are not supported.
+     */
+    public String recognize(BufferedImage image) throws TesseractException {
+        int bitsPerPixel;
+        if (image.getRaster().getDataBuffer() instanceof DataBufferByte) {
+            bitsPerPixel = image.getColorModel().getPixelSize();
+
+            if (bitsPerPixel < 8) {
+                throw new IllegalArgumentException("Packed images are not supported, got " + bitsPerPixel + " bits per pixel");
+            }
+        } else {
+            bitsPerPixel = 8;// tess4j converts anything else, e.g. TYPE_INT_RGB, to 8 bit grayscale
+        }
+
+        ByteBuffer buffer = ImageIOHelper.getImageByteBuffer(image);
+
+        return recognize(buffer, image.getWidth(), image.getHeight(),
+            bitsPerPixel / 8, (int)Math.ceil(image.getWidth() * bitsPerPixel / 8d));
+    }
+
+    /**
+     * Runs OCR on a grayscale frame, the frame's buffer is passed to Tesseract as is.
+     */
+    public String recognize(GrayFrame frame) throws TesseractException {
+        return recognize(frame.getBuffer(), frame.getWidth(), frame.getHeight(), 1, frame.getStride());
+    }
+
+    /**
+     * Runs OCR on a raw pixel buffer.
+     */
+    public String recognize(ByteBuffer buffer, int width, int height, int bytesPerPixel, int bytesPerLine) throws TesseractException {
+        checkDisposed();
+
+        try {
+            api.TessBaseAPISetImage(handle, buffer, width, height, bytesPerPixel, bytesPerLine);
+
+            return getText();
+        } finally {
+            api.TessBaseAPIClear(handle);
+        }
+    }
+
+    /**
+     * Runs OCR on horizontal bands of a grayscale frame, setting the image only once.
+     *
+     * @param bands the top row and height of each band
+     * @param texts receives the text of each band, bands that already have text are skipped
+     */
+    public void recognizeBands(GrayFrame frame, List<int[]> bands, String[] texts) throws TesseractException {
+        checkDisposed();
+
+        try {
+            api.TessBaseAPISetImage(handle, frame.getBuffer(), frame.getWidth(), frame.getHeight(), 1, frame.getStride());
+
+            for (int i = 0; i < bands.size(); i++) {
+                if (texts[i] != null) {
+                    continue;
+                }
+
+                int[] band = bands.get(i);
+                api.TessBaseAPISetRectangle(handle, 0, band[0], frame.getWidth(), band[1]);
+
+                texts[i] = getText();
+            }
+        } finally {
+            api.TessBaseAPIClear(handle);
+        }
+    }
+
+    private String getText() throws TesseractException {
+        long start = System.nanoTime();
+
+        try {
+            Pointer textPtr = api.TessBaseAPIGetUTF8Text(handle);
+            if (textPtr == null) {
+                throw new TesseractException("Tesseract returned no text");
+            }
+
+            try {
+                return textPtr.getString(0, "UTF-8");
+            } finally {
+                api.TessDeleteText(textPtr);
+            }
+        } finally {
+            recognitions.incrementAndGet();
+            recognitionNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void checkDisposed() throws TesseractException {
+        if (disposed) {
+            throw new TesseractException("Engine has already been disposed");
+        }
+    }
+
+    public long getRecognitionCount() {
+        return recognitions.get();
+    }
+
+    public long getRecognitionNanos() {
+        return recognitionNanos.get();
+    }
+
+    /**
+     * Releases the native handle, this engine cannot be used afterwards.
+     */
+    public void dispose() {
+        if (disposed) {
+            return;
+        }
+
+        disposed = true;
+
+        api.TessBaseAPIEnd(handle);
+        api.TessBaseAPIDelete(handle);
+    }
+}
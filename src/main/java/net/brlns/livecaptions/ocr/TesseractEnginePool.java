@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.ocr;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import net.sourceforge.tess4j.TesseractException;
+
+/**
+ * Keeps a small number of warmed up Tesseract engines around.
+ *
+ * Engines are only re-initialized when the data path or language changes.
+ * Engines that hang can be quarantined, they will be disposed of instead of
+ * reused once (and if) their native call returns.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class TesseractEnginePool {
+
+    private final int maxIdle;
+
+    private final Deque<TesseractEngine> idle = new ArrayDeque<>();
+    private final Set<TesseractEngine> live = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<TesseractEngine> quarantined = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private String dataPath = "";
+    private String language = "";
+
+    private long enginesCreated = 0;
+    private long enginesQuarantined = 0;
+    private long totalInitNanos = 0;
+    private long retiredRecognitions = 0;
+    private long retiredRecognitionNanos = 0;
+
+    public TesseractEnginePool(int maxIdleIn) {
+        maxIdle = maxIdleIn;
+    }
+
+    /**
+     * Sets the data path and language new engines should be initialized with.
+     *
+     * This is cheap to call every tick, idle engines are only
+     * discarded if either value actually changed.
+     */
+    public synchronized void configure(String dataPathIn, String languageIn) {
+        if (dataPath.equals(dataPathIn) && language.equals(languageIn)) {
+            return;
+        }
+
+        dataPath = dataPathIn;
+        language = languageIn;
+
+        log.info("Tesseract configuration changed, language: {} tessdata: {}", language, dataPath);
+
+        while (!idle.isEmpty()) {
+            retire(idle.poll());
+        }
+    }
+
+    /**
+     * Initializes an engine ahead of time so the first frame does not pay for it.
+     */
+    public void warmUp() throws TesseractException {
+        release(acquire());
+    }
+
+    /**
+     * Borrows an engine from the pool, creating one if none are idle.
+     */
+    public TesseractEngine acquire() throws TesseractException {
+        String path;
+        String lang;
+
+        synchronized (this) {
+            TesseractEngine engine = idle.poll();
+            if (engine != null) {
+                return engine;
+            }
+
+            path = dataPath;
+            lang = language;
+        }
+
+        TesseractEngine engine = new TesseractEngine(path, lang);
+
+        synchronized (this) {
+            live.add(engine);
+            enginesCreated++;
+            totalInitNanos += engine.getInitNanos();
+        }
+
+        log.info("Initialized Tesseract engine #{} in {}ms", enginesCreated, engine.getInitNanos() / 1_000_000);
+
+        return engine;
+    }
+
+    /**
+     * Returns an engine to the pool.
+     *
+     * Quarantined or outdated engines are disposed of instead.
+     */
+    public synchronized void release(TesseractEngine engine) {
+        if (quarantined.remove(engine)) {
+            log.info("Disposing of quarantined Tesseract engine");
+
+            retire(engine);
+            return;
+        }
+
+        if (!engine.matches(dataPath, language) || idle.size() >= maxIdle) {
+            retire(engine);
+            return;
+        }
+
+        idle.push(engine);
+    }
+
+    /**
+     * Marks an engine that is stuck in a native call as unusable.
+     *
+     * We cannot safely free a handle that is still in use, so it is
+     * disposed of once its current call returns and the engine is released.
+     */
+    public synchronized void quarantine(TesseractEngine engine) {
+        if (live.contains(engine) && quarantined.add(engine)) {
+            enginesQuarantined++;
+
+            log.warn("Quarantined a hung Tesseract engine");
+        }
+    }
+
+    /**
+     * Disposes of all idle engines.
+     */
+    public synchronized void shutdown() {
+        while (!idle.isEmpty()) {
+            retire(idle.poll());
+        }
+    }
+
+    /**
+     * Summarizes engine initialization cost against the per frame recognition cost.
+     */
+    public synchronized String getStatsSummary() {
+        long recognitions = retiredRecognitions;
+        long recognitionNanos = retiredRecognitionNanos;
+
+        for (TesseractEngine engine : live) {
+            recognitions += engine.getRecognitionCount();
+            recognitionNanos += engine.getRecognitionNanos();
+        }
+
+        double avgInitMs = enginesCreated == 0 ? 0 : totalInitNanos / (double)enginesCreated / 1_000_000d;
+        double avgRecognitionMs = recognitions == 0 ? 0 : recognitionNanos / (double)recognitions / 1_000_000d;
+
+        return String.format("engines created: %d, quarantined: %d, avg init: %.1fms, frames: %d, avg recognition: %.1fms",
+            enginesCreated, enginesQuarantined, avgInitMs, recognitions, avgRecognitionMs);
+    }
+
+    private void retire(TesseractEngine engine) {
+        live.remove(engine);
+
+        retiredRecognitions += engine.getRecognitionCount();
+        retiredRecognitionNanos += engine.getRecognitionNanos();
+
+        engine.dispose();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.ocr;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import net.brlns.livecaptions.util.ImageUtils;
+
+/**
+ * Filters out non-white pixels for better visibility,
+ * This is specifically tailored for white text.
+ *
+ * Captures are converted in a single pass into an 8 bit grayscale frame that
+ * can be handed to Tesseract as is. The output frame is a scratch buffer that
+ * gets reused by the next call, so an instance must not be shared between
+ * threads and the output must not be held on to.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class WhiteTextFilter {
+
+    /**
+     * Pixels with a gray level below this are turned black, the rest white.
+     */
+    public static final int CONTRAST_THRESHOLD = 180;
+
+    /**
+     * Lookup tables mapping sRGB components to their weighted share of linear luminance,
+     * the same conversion a ColorConvertOp to CS_GRAY goes through.
+     */
+    private static final int[] RED_LUMINANCE = buildLuminanceTable(0.2126);
+    private static final int[] GREEN_LUMINANCE = buildLuminanceTable(0.7152);
+    private static final int[] BLUE_LUMINANCE = buildLuminanceTable(0.0722);
+
+    private static final int LUMINANCE_THRESHOLD = (int)Math.round(toLinear(CONTRAST_THRESHOLD) * 65535);
+
+    private final GrayFrame scratch = new GrayFrame();
+
+    private int[] rowScratch = new int[0];
+
+    /**
+     * Converts the image to grayscale, and binarizes it if contrast mode is on.
+     */
+    public GrayFrame filter(BufferedImage image, boolean contrastMode) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        scratch.resize(width, height);
+
+        ByteBuffer out = scratch.getBuffer();
+
+        if (ImageUtils.isIntPacked(image)) {
+            int[] in = ImageUtils.getIntData(image);
+            int offset = ImageUtils.getIntOffset(image);
+            int stride = ImageUtils.getIntStride(image);
+
+            for (int y = 0; y < height; y++) {
+                convertRow(in, offset + y * stride, out, y * width, width, contrastMode);
+            }
+        } else {
+            if (rowScratch.length < width) {
+                rowScratch = new int[width];
+            }
+
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, rowScratch, 0, width);
+
+                convertRow(rowScratch, 0, out, y * width, width, contrastMode);
+            }
+        }
+
+        return scratch;
+    }
+
+    private static void convertRow(int[] in, int inOffset, ByteBuffer out, int outOffset, int width, boolean contrastMode) {
+        for (int x = 0; x < width; x++) {
+            int pixel = in[inOffset + x];
+
+            int red = (pixel >> 16) & 0xFF;
+            int green = (pixel >> 8) & 0xFF;
+            int blue = pixel & 0xFF;
+
+            byte gray;
+            if (contrastMode) {
+                int luminance = RED_LUMINANCE[red] + GREEN_LUMINANCE[green] + BLUE_LUMINANCE[blue];
+
+                gray = luminance < LUMINANCE_THRESHOLD ? (byte)0 : (byte)0xFF;
+            } else {
+                // Rec. 601 luma, what Tesseract would have converted our RGB image to anyway
+                gray = (byte)((red * 77 + green * 150 + blue * 29) >> 8);
+            }
+
+            out.put(outOffset + x, gray);
+        }
+    }
+
+    private static int[] buildLuminanceTable(double weight) {
+        int[] table = new int[256];
+
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (int)Math.round(toLinear(i) * weight * 65535);
+        }
+
+        return table;
+    }
+
+    /**
+     * Converts an sRGB component to linear light.
+     */
+    private static double toLinear(int component) {
+        double value = component / 255d;
+
+        if (value <= 0.04045) {
+            return value / 12.92;
+        }
+
+        return Math.pow((value + 0.055) / 1.055, 2.4);
+    }
+}
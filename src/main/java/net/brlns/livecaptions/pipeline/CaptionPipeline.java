@@ -0,0 +1,662 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.CaptureRegion;
+import net.brlns.livecaptions.Settings;
+import net.brlns.livecaptions.capture.FrameChangeDetector;
+import net.brlns.livecaptions.capture.CornerProbingSource;
+import net.brlns.livecaptions.capture.FrameSource;
+import net.brlns.livecaptions.debug.DebugFrame;
+import net.brlns.livecaptions.debug.DebugFrameRecorder;
+import net.brlns.livecaptions.metrics.LatencyHistogram;
+import net.brlns.livecaptions.metrics.MetricsRegistry;
+import net.brlns.livecaptions.ocr.BandedRecognizer;
+import net.brlns.livecaptions.ocr.GrayFrame;
+import net.brlns.livecaptions.ocr.OcrWorker;
+import net.brlns.livecaptions.ocr.WhiteTextFilter;
+import net.brlns.livecaptions.trace.FrameTrace;
+import net.brlns.livecaptions.trace.TraceEvent;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * The capture to transcript pipeline.
+ *
+ * While the caption box is away, probes its corners first when the source is a
+ * CornerProbingSource. Grabs a frame from the source, checks that the caption box is there and that something
+ * changed, then filters and OCRs the frame on the OCR worker and merges the
+ * result with the previous lines. Finished lines are handed to the
+ * transcript sink.
+ *
+ * Capturing never waits for OCR. At most one frame per pipeline waits in the
+ * OCR queue, when OCR falls behind that frame is replaced with the newest
+ * capture instead of the new capture being turned away, so OCR always
+ * reads the most recent captions, in capture order.
+ *
+ * With several OCR workers, consecutive frames are OCR'd in parallel and
+ * their results are put back in capture order before being merged.
+ *
+ * What happens to every frame can be recorded to a FrameTrace, see setTrace().
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class CaptionPipeline {
+
+    private final Supplier<Settings> config;
+    private final CaptureRegion region;
+    private final FrameSource source;
+    @Nullable
+    private final CornerProbingSource probingSource;
+    private final List<OcrWorker> ocrWorkers;
+    private final TranscriptSink sink;
+    private final Consumer<Throwable> errorHandler;
+
+    private final FrameChangeDetector frameChangeDetector = new FrameChangeDetector();
+    private final BandedRecognizer bandedRecognizer = new BandedRecognizer();
+    private final ThreadLocal<WhiteTextFilter> whiteTextFilter = ThreadLocal.withInitial(WhiteTextFilter::new);
+    private final CaptionStabilizer stabilizer;
+    private final Resequencer<String> resequencer = new Resequencer<>(this::deliver);
+
+    private long nextSequence = 0;
+
+    /**
+     * The newest frame waiting for OCR, a job for it is queued whenever this is set.
+     */
+    private final AtomicReference<BufferedImage> pendingFrame = new AtomicReference<>();
+
+    @Nullable
+    private Consumer<BufferedImage> frameListener;
+
+    private long submitWaitMs = 0;
+
+    @Nullable
+    private FrameTrace trace = null;
+    private int traceSource = -1;
+
+    // Numbers the records of the capture thread in the trace
+    private long ticks = 0;
+
+    // Whether the last tick found the caption box, probing only pays off while it is away
+    private boolean captionBoxSeen = false;
+
+    @Nullable
+    private DebugFrameRecorder debugFrameRecorder = null;
+
+    /**
+     * Sampled frames waiting for their OCR result, by sequence number.
+     */
+    private final Map<Long, DebugFrame> debugFrames = new ConcurrentHashMap<>();
+
+    // The sampled frame being merged, guarded by the stabilizer's lock
+    @Nullable
+    private DebugFrame mergingDebugFrame = null;
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong probesPassed = new AtomicLong();
+    private final AtomicLong probesFailed = new AtomicLong();
+    private final AtomicLong framesCaptured = new AtomicLong();
+    private final AtomicLong framesSubmitted = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong framesRecognized = new AtomicLong();
+    private final AtomicLong recognitionNanos = new AtomicLong();
+    private final AtomicLong linesWritten = new AtomicLong();
+    private final AtomicLong captionBoxFound = new AtomicLong();
+    private final AtomicLong captionBoxMissing = new AtomicLong();
+    private final AtomicLong framesSkippedBusy = new AtomicLong();
+
+    private final LatencyHistogram captureTime = new LatencyHistogram();
+    private final LatencyHistogram filterTime = new LatencyHistogram();
+    private final LatencyHistogram ocrTime = new LatencyHistogram();
+
+    // Raw bits of the smoothed OCR latency in milliseconds, every OCR worker updates it
+    private final AtomicLong ocrLatencyBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    /**
+     * @param configIn supplies the current settings, they may be replaced at any time
+     * @param regionIn the capture region this pipeline logs, its filter settings take precedence
+     * @param sourceIn where frames come from
+     * @param ocrWorkersIn run the OCR jobs, consecutive frames go to whichever worker is the least busy
+     * @param sinkIn receives finished lines
+     * @param errorHandlerIn receives exceptions thrown while capturing
+     */
+    public CaptionPipeline(Supplier<Settings> configIn, CaptureRegion regionIn, FrameSource sourceIn,
+        List<OcrWorker> ocrWorkersIn, TranscriptSink sinkIn, Consumer<Throwable> errorHandlerIn) {
+        config = configIn;
+        region = regionIn;
+        source = sourceIn;
+        probingSource = sourceIn instanceof CornerProbingSource ? (CornerProbingSource)sourceIn : null;
+        ocrWorkers = ocrWorkersIn;
+        sink = sinkIn;
+        errorHandler = errorHandlerIn;
+
+        stabilizer = new CaptionStabilizer(config, this::writeLine);
+    }
+
+    /**
+     * Receives every captured frame before any processing, e.g. for saving debug images.
+     */
+    public void setFrameListener(@Nullable Consumer<BufferedImage> frameListenerIn) {
+        frameListener = frameListenerIn;
+    }
+
+    /**
+     * How long to wait for room in the OCR queue before skipping a frame.
+     *
+     * Live capture never waits, replays can wait to make sure every frame is read.
+     */
+    public void setSubmitWaitMs(long submitWaitMsIn) {
+        submitWaitMs = submitWaitMsIn;
+    }
+
+    /**
+     * Records every frame's way through the pipeline to the trace, under this region's name.
+     */
+    public void setTrace(@Nullable FrameTrace traceIn) {
+        trace = traceIn;
+        traceSource = traceIn != null ? traceIn.registerSource(region.getName()) : -1;
+
+        stabilizer.setTrace(traceIn, traceSource);
+    }
+
+    /**
+     * Hands frames the recorder samples to it, with the filtered image, the OCR text and the lines they finished.
+     */
+    public void setDebugFrameRecorder(@Nullable DebugFrameRecorder debugFrameRecorderIn) {
+        debugFrameRecorder = debugFrameRecorderIn;
+    }
+
+    public CaptureRegion getRegion() {
+        return region;
+    }
+
+    public FrameSource getSource() {
+        return source;
+    }
+
+    public int getOcrWorkerCount() {
+        return ocrWorkers.size();
+    }
+
+    /**
+     * Captures and processes a single frame.
+     */
+    public TickResult tick() {
+        Settings settings = config.get();
+
+        ticks++;
+        long captureStart = System.nanoTime();
+
+        BufferedImage screenshot;
+        try {
+            if (settings.isProbeCaptionBox() && probingSource != null
+                && !captionBoxSeen && !region.isCaptureAnyText(settings)) {
+                if (!probeCaptionBox(probingSource, settings)) {
+                    probesFailed.incrementAndGet();
+                    captionBoxMissing.incrementAndGet();
+                    captureTime.recordSince(captureStart);
+
+                    endSession();
+                    return TickResult.NO_CAPTION_BOX;
+                }
+
+                probesPassed.incrementAndGet();
+            }
+
+            screenshot = source.nextFrame();
+        } catch (IOException e) {
+            errorHandler.accept(e);
+
+            captionBoxSeen = false;
+            return TickResult.NO_FRAME;
+        }
+
+        if (screenshot == null) {
+            captionBoxSeen = false;
+            return TickResult.NO_FRAME;
+        }
+
+        long captureNanos = System.nanoTime() - captureStart;
+
+        captureTime.recordNanos(captureNanos);
+        framesCaptured.incrementAndGet();
+        trace(TraceEvent.CAPTURED, ticks, captureNanos, 0);
+
+        if (frameListener != null) {
+            frameListener.accept(screenshot);
+        }
+
+        if (!inCaptionBox(screenshot)) {
+            captionBoxMissing.incrementAndGet();
+            captionBoxSeen = false;
+
+            endSession();
+            return TickResult.NO_CAPTION_BOX;
+        }
+
+        captionBoxFound.incrementAndGet();
+        captionBoxSeen = true;
+
+        if (!frameChangeDetector.hasChanged(screenshot)) {
+            trace(TraceEvent.UNCHANGED, ticks, 0, 0);
+
+            return TickResult.UNCHANGED;
+        }
+
+        if (submitWaitMs > 0) {
+            // Replays wait for OCR instead, every frame gets read
+            return submit(() -> screenshot, null, settings);
+        }
+
+        if (pendingFrame.getAndSet(screenshot) != null) {
+            // OCR has not picked up the previous frame yet, it reads this one instead
+            framesDropped.incrementAndGet();
+            trace(TraceEvent.STALE_REPLACED, ticks, 0, 0);
+
+            return TickResult.SUBMITTED;
+        }
+
+        AtomicBoolean taken = new AtomicBoolean();
+
+        return submit(() -> {
+            taken.set(true);
+
+            return pendingFrame.getAndSet(null);
+        }, () -> {
+            if (!taken.get()) {
+                // Dropped before it ran, the waiting frame must not block the next ones
+                pendingFrame.set(null);
+                frameChangeDetector.reset();
+            }
+        }, settings);
+    }
+
+    /**
+     * Queues an OCR job for the frame.
+     *
+     * Results go through the resequencer, frames OCR'd in parallel are merged in capture order.
+     *
+     * @param frame supplies the frame once the job starts
+     * @param onSettled see OcrWorker.submit()
+     */
+    private TickResult submit(Supplier<BufferedImage> frame, @Nullable Runnable onSettled, Settings settings) {
+        boolean contrastMode = region.isContrastMode(settings);
+        boolean incrementalOcr = settings.isIncrementalOcr();
+
+        long sequence = nextSequence++;
+
+        DebugFrameRecorder recorder = debugFrameRecorder;
+
+        // Filtering happens on the worker thread, each worker reuses its own scratch buffer
+        OcrWorker.Recognizer recognizer = (engine) -> {
+            long start = System.nanoTime();
+
+            try {
+                BufferedImage image = frame.get();
+                GrayFrame filteredImage = whiteTextFilter.get().filter(image, contrastMode);
+
+                if (recorder != null && recorder.wants(sequence)) {
+                    debugFrames.put(sequence, new DebugFrame(region.getName(), sequence, image, filteredImage.toImage()));
+                }
+
+                long ocrStart = System.nanoTime();
+                filterTime.recordNanos(ocrStart - start);
+                trace(TraceEvent.FILTERED, sequence, ocrStart - start, 0);
+
+                String text = null;
+                try {
+                    if (incrementalOcr) {
+                        text = bandedRecognizer.recognize(engine, filteredImage, sequence);
+                    } else {
+                        text = engine.recognize(filteredImage);
+                    }
+
+                    return text;
+                } finally {
+                    long ocrNanos = System.nanoTime() - ocrStart;
+
+                    ocrTime.recordNanos(ocrNanos);
+                    trace(TraceEvent.RECOGNIZED, sequence, ocrNanos, text != null ? text.length() : -1);
+                }
+            } finally {
+                long elapsedNanos = System.nanoTime() - start;
+
+                framesRecognized.incrementAndGet();
+                recognitionNanos.addAndGet(elapsedNanos);
+
+                updateOcrLatency(elapsedNanos / 1_000_000d);
+            }
+        };
+
+        AtomicBoolean delivered = new AtomicBoolean();
+
+        Runnable settled = () -> {
+            if (onSettled != null) {
+                onSettled.run();
+            }
+
+            if (!delivered.get()) {
+                // OCR failed, timed out or never ran, the same frame must be read again instead of passing as unchanged
+                frameChangeDetector.reset();
+            }
+
+            // No-op if the result already came in, otherwise frames behind this one are no longer held back
+            resequencer.complete(sequence, null);
+
+            if (recorder != null && !debugFrames.isEmpty()) {
+                DebugFrame debugFrame = debugFrames.get(sequence);
+
+                // No text came in, OCR failed or was given up on
+                if (debugFrame != null && debugFrame.getText() == null && debugFrames.remove(sequence, debugFrame)) {
+                    recorder.offer(debugFrame);
+                }
+            }
+        };
+
+        Consumer<String> callback = (text) -> {
+            delivered.set(true);
+
+            if (recorder != null && !debugFrames.isEmpty()) {
+                DebugFrame debugFrame = debugFrames.get(sequence);
+
+                if (debugFrame != null) {
+                    debugFrame.setText(text);
+                }
+            }
+
+            resequencer.complete(sequence, text);
+        };
+
+        if (getLeastBusyWorker().submit(recognizer, callback, settled, submitWaitMs)) {
+            framesSubmitted.incrementAndGet();
+            trace(TraceEvent.SUBMITTED, ticks, sequence, 0);
+
+            return TickResult.SUBMITTED;
+        } else {
+            resequencer.complete(sequence, null);
+
+            // This frame was never read, make sure we look at it again next tick
+            pendingFrame.set(null);
+            frameChangeDetector.reset();
+            framesSkippedBusy.incrementAndGet();
+            trace(TraceEvent.OCR_BUSY, ticks, sequence, 0);
+
+            return TickResult.OCR_BUSY;
+        }
+    }
+
+    /**
+     * Smoothed so a single slow frame does not hold back the capture rate for long.
+     */
+    private void updateOcrLatency(double elapsedMs) {
+        long current;
+        long updated;
+
+        do {
+            current = ocrLatencyBits.get();
+            double latencyMs = Double.longBitsToDouble(current);
+
+            updated = Double.doubleToRawLongBits(latencyMs == 0 ? elapsedMs : latencyMs * 0.8 + elapsedMs * 0.2);
+        } while (!ocrLatencyBits.compareAndSet(current, updated));
+    }
+
+    private void trace(TraceEvent event, long frame, long a, long b) {
+        if (trace != null) {
+            trace.record(traceSource, event, frame, a, b);
+        }
+    }
+
+    private OcrWorker getLeastBusyWorker() {
+        OcrWorker leastBusy = ocrWorkers.get(0);
+
+        for (OcrWorker worker : ocrWorkers) {
+            if (worker.getPending() < leastBusy.getPending()) {
+                leastBusy = worker;
+            }
+        }
+
+        return leastBusy;
+    }
+
+    /**
+     * Forgets any state derived from previous frames, e.g. after settings that
+     * change what OCR sees for the same frame were changed.
+     */
+    public void reset() {
+        frameChangeDetector.reset();
+        bandedRecognizer.reset();
+    }
+
+    /**
+     * Flushes current lines to the sink, even if they are not finished,
+     * and ends the current transcript.
+     *
+     * This method is called before exit or when the CC window goes away.
+     */
+    public void endSession() {
+        synchronized (stabilizer) {
+            stabilizer.flush();
+            sink.endSession();
+        }
+
+        frameChangeDetector.reset();
+    }
+
+    /**
+     * Exposes the counters and timings of this pipeline, labelled with the region name.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        String name = region.getName();
+
+        registry.histogram("livecaptions_capture_duration", "Time spent probing and grabbing a frame",
+            captureTime, "region", name);
+        registry.histogram("livecaptions_filter_duration", "Time spent filtering a frame for OCR",
+            filterTime, "region", name);
+        registry.histogram("livecaptions_ocr_duration", "Time spent in Tesseract for a frame",
+            ocrTime, "region", name);
+
+        registry.counter("livecaptions_frames_captured_total", "Frames grabbed",
+            framesCaptured::get, "region", name);
+        registry.counter("livecaptions_caption_box_checks_total", "Caption box checks by result",
+            captionBoxFound::get, "region", name, "result", "found");
+        registry.counter("livecaptions_caption_box_checks_total", "Caption box checks by result",
+            captionBoxMissing::get, "region", name, "result", "missing");
+        registry.counter("livecaptions_frames_unchanged_total", "Frames skipped because nothing changed",
+            frameChangeDetector::getFramesSkipped, "region", name);
+        registry.counter("livecaptions_frames_skipped_busy_total", "Frames skipped because the OCR queue was full",
+            framesSkippedBusy::get, "region", name);
+        registry.counter("livecaptions_frames_stale_total", "Frames replaced by a newer one before OCR picked them up",
+            framesDropped::get, "region", name);
+        registry.counter("livecaptions_frames_recognized_total", "Frames that went through OCR",
+            framesRecognized::get, "region", name);
+        registry.gauge("livecaptions_frames_skipped_ratio", "Share of captured frames that did not need OCR or could not get it",
+            this::getFrameSkipRatio, "region", name);
+        registry.counter("livecaptions_lines_committed_total", "Finished lines handed to the transcript",
+            linesWritten::get, "region", name);
+    }
+
+    /**
+     * The share of captured frames that were never OCR'd, unchanged, stale or skipped while OCR was busy.
+     */
+    public double getFrameSkipRatio() {
+        long captured = framesCaptured.get();
+
+        return captured == 0 ? 0 : 1 - Math.min(captured, framesRecognized.get()) / (double)captured;
+    }
+
+    /**
+     * A moving average of how long OCR took for the recent frames, in milliseconds.
+     *
+     * With several workers, frames can be handed to OCR getOcrWorkerCount() times as often.
+     */
+    public double getOcrLatencyMs() {
+        return Double.longBitsToDouble(ocrLatencyBits.get());
+    }
+
+    public String getStatsSummary() {
+        double elapsedSeconds = Math.max(1, System.nanoTime() - startNanos) / 1_000_000_000d;
+        long recognized = framesRecognized.get();
+        long probes = probesPassed.get() + probesFailed.get();
+
+        return String.format("%s: %d frames (%.2f fps), %d OCR'd (%.2f fps, avg %.1fms), %d lines",
+            region.getName(), framesCaptured.get(), framesCaptured.get() / elapsedSeconds,
+            recognized, recognized / elapsedSeconds,
+            recognized == 0 ? 0 : recognitionNanos.get() / (double)recognized / 1_000_000d,
+            linesWritten.get())
+            + String.format(" | Stale frames dropped: %d", framesDropped.get())
+            + String.format(" | Corner probe: %d passed, %d failed (%.1f%% hit ratio)",
+                probesPassed.get(), probesFailed.get(), probes == 0 ? 0 : probesPassed.get() * 100d / probes)
+            + " | Frame changes: " + frameChangeDetector.getStatsSummary()
+            + " | Incremental OCR: " + bandedRecognizer.getStatsSummary()
+            + " | Resequencer: " + resequencer.getStatsSummary()
+            + " | Stabilizer: " + stabilizer.getStatsSummary();
+    }
+
+    /**
+     * Receives OCR results from the resequencer, in capture order.
+     */
+    private void deliver(String text, long sequence) {
+        DebugFrameRecorder recorder = debugFrameRecorder;
+        DebugFrame debugFrame = recorder != null && !debugFrames.isEmpty() ? debugFrames.remove(sequence) : null;
+
+        if (debugFrame == null) {
+            processOcrText(text, sequence);
+            return;
+        }
+
+        synchronized (stabilizer) {
+            mergingDebugFrame = debugFrame;
+
+            try {
+                processOcrText(text, sequence);
+            } finally {
+                mergingDebugFrame = null;
+            }
+        }
+
+        recorder.offer(debugFrame);
+    }
+
+    /**
+     * Cleans up freshly OCR'd text and hands its lines to the stabilizer,
+     * lines it considers finished are written to the sink.
+     *
+     * This runs on the OCR worker thread.
+     */
+    void processOcrText(String text) {
+        processOcrText(text, -1);
+    }
+
+    /**
+     * @param sequence the OCR sequence number of the frame, for the trace
+     */
+    void processOcrText(String text, long sequence) {
+        Settings settings = config.get();
+
+        text = text.replace("|", "I"); // This one is particularly common
+
+        if (text.contains("(") || text.contains(")")) {// Not sure if these actually ever show up in closed captions?
+            return;
+        }
+
+        if (settings.isDebugMode()) {
+            log.debug("OCR Saw: " + text);
+        }
+
+        // Process the results
+        stabilizer.update(text.split("\\n"), sequence);
+    }
+
+    private void writeLine(String line) {
+        if (config.get().isDebugMode()) {
+            log.info("Line Finished: " + line);
+        }
+
+        linesWritten.incrementAndGet();
+
+        if (mergingDebugFrame != null) {
+            mergingDebugFrame.addCommittedLine(line);
+        }
+
+        sink.writeLine(line);
+    }
+
+    /**
+     * Ignore capturing if we aren't seeing the caption box
+     *
+     * This method checks if all four corners of the selected
+     * screen area are darker than the set RGB threshold.
+     */
+    boolean inCaptionBox(BufferedImage image) {
+        Settings settings = config.get();
+
+        if (region.isCaptureAnyText(settings)) {// Results might not be the best, toggle contrast mode on and do NOT select the whole screen unless you have a really good CPU
+            return true;
+        }
+
+        for (int corner = 0; corner < 4; corner++) {
+            int colour = image.getRGB((corner & 1) == 0 ? 0 : image.getWidth() - 1,
+                corner < 2 ? 0 : image.getHeight() - 1);
+
+            if (!isCaptionBoxColour(colour, settings)) {
+                trace(TraceEvent.NO_CAPTION_BOX, ticks, corner, colour);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Same check as inCaptionBox(), reading the corners from the source one at a time,
+     * it stops at the first corner that does not match.
+     */
+    private boolean probeCaptionBox(CornerProbingSource probe, Settings settings) throws IOException {
+        for (int corner = 0; corner < 4; corner++) {
+            int colour = probe.probeCorner(corner);
+
+            if (!isCaptionBoxColour(colour, settings)) {
+                trace(TraceEvent.PROBE_FAILED, ticks, corner, colour);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isCaptionBoxColour(int colour, Settings settings) {
+        int red = (colour >> 16) & 0xFF;
+        int green = (colour >> 8) & 0xFF;
+        int blue = colour & 0xFF;
+
+        int threshold = region.getCaptionWindowColorThreshold(settings);
+
+        return red <= threshold && green <= threshold && blue <= threshold;// All mostly black! seems to vary a bit. This has to be tweaked if not black & white
+    }
+}
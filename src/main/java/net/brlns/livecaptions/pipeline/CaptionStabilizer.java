@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.Settings;
+import net.brlns.livecaptions.trace.FrameTrace;
+import net.brlns.livecaptions.trace.TraceEvent;
+import net.brlns.livecaptions.util.JaroWinkler;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Turns the lines OCR'd from consecutive frames into finished lines.
+ *
+ * Every line on screen is tracked as a hypothesis that is refined as frames
+ * come in. New lines are matched against the tracked ones in screen order,
+ * equal, prefix and contained lines match right away, lines whose lengths
+ * and common prefix already rule out a close enough score are rejected, and
+ * only what is left goes through JaroWinkler.
+ *
+ * A line is committed once it goes off screen, by then Live Captions is done
+ * revising it. With CaptionStableFrames set, a line is committed early once
+ * it has not changed for that many frames and is no longer the bottom line,
+ * the one Live Captions is still typing into. Only frames that reach the
+ * stabilizer count, frames the pipeline skipped as unchanged never get here.
+ * Revisions made after an early commit are not written, they are counted so
+ * the window can be tuned.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class CaptionStabilizer {
+
+    /**
+     * Lines at most this far apart are considered the same line.
+     */
+    private static final double MAX_DISTANCE = 0.20;
+
+    /**
+     * How many committed lines are checked for duplicates before committing another.
+     */
+    private static final int RECENT_COMMITS = 4;
+
+    private static class Hypothesis {
+
+        private String text;
+
+        private int stableFrames = 1;
+        private boolean committed = false;
+
+        private Hypothesis(String textIn) {
+            text = textIn;
+        }
+    }
+
+    private final Supplier<Settings> config;
+    private final Consumer<String> commitHandler;
+
+    private ArrayDeque<Hypothesis> tracked = new ArrayDeque<>();
+    private ArrayDeque<Hypothesis> matched = new ArrayDeque<>();
+
+    private final ArrayDeque<String> recentCommits = new ArrayDeque<>(RECENT_COMMITS);
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong comparisons = new AtomicLong();
+    private final AtomicLong prefiltered = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong revisedAfterCommit = new AtomicLong();
+
+    @Nullable
+    private FrameTrace trace = null;
+    private int traceSource = -1;
+
+    // The frame being merged, for the trace
+    private long frameId = -1;
+
+    /**
+     * @param configIn supplies the current settings, they may be replaced at any time
+     * @param commitHandlerIn receives finished lines
+     */
+    public CaptionStabilizer(Supplier<Settings> configIn, Consumer<String> commitHandlerIn) {
+        config = configIn;
+        commitHandler = commitHandlerIn;
+    }
+
+    /**
+     * Records line comparisons and commits to the trace, under the given source id.
+     */
+    public synchronized void setTrace(@Nullable FrameTrace traceIn, int traceSourceIn) {
+        trace = traceIn;
+        traceSource = traceSourceIn;
+    }
+
+    /**
+     * Updates the tracked lines with the lines of a new frame, top to bottom.
+     */
+    public void update(String[] frameLines) {
+        update(frameLines, -1);
+    }
+
+    /**
+     * Updates the tracked lines with the lines of a new frame, top to bottom.
+     *
+     * @param frameIdIn identifies the frame in the trace
+     */
+    public synchronized void update(String[] frameLines, long frameIdIn) {
+        Settings settings = config.get();
+        int stableFramesToCommit = settings.getCaptionStableFrames();
+
+        frameId = frameIdIn;
+        frames.incrementAndGet();
+
+        for (String line : frameLines) {
+            line = line.strip();
+
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            lines.incrementAndGet();
+
+            int index = findMatch(line, trace != null && trace.isEnabled());
+
+            if (index == -1) {
+                matched.addLast(new Hypothesis(line));
+                continue;
+            }
+
+            // Everything above the match went off screen
+            for (int i = 0; i < index; i++) {
+                retire(tracked.pollFirst());
+            }
+
+            Hypothesis hypothesis = tracked.pollFirst();
+
+            if (hypothesis.text.equals(line)) {
+                hypothesis.stableFrames++;
+            } else {
+                hypothesis.text = line;
+                hypothesis.stableFrames = 1;
+
+                if (hypothesis.committed) {
+                    revised(hypothesis);
+                }
+            }
+
+            matched.addLast(hypothesis);
+        }
+
+        while (!tracked.isEmpty()) {
+            retire(tracked.pollFirst());
+        }
+
+        ArrayDeque<Hypothesis> swap = tracked;
+        tracked = matched;
+        matched = swap;
+
+        if (stableFramesToCommit > 0) {
+            Hypothesis bottom = tracked.peekLast();
+
+            for (Hypothesis hypothesis : tracked) {
+                if (hypothesis != bottom && !hypothesis.committed && hypothesis.stableFrames >= stableFramesToCommit) {
+                    commit(hypothesis);
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits every tracked line, even if they are not finished, and starts over.
+     */
+    public synchronized void flush() {
+        while (!tracked.isEmpty()) {
+            retire(tracked.pollFirst());
+        }
+
+        recentCommits.clear();
+    }
+
+    public String getStatsSummary() {
+        return String.format("%d frames, %d lines, %d comparisons, %d prefiltered, %d commits, %d duplicates, %d revised after commit",
+            frames.get(), lines.get(), comparisons.get(), prefiltered.get(), commits.get(), duplicates.get(), revisedAfterCommit.get());
+    }
+
+    /**
+     * Finds the first tracked line the new line is a revision of.
+     *
+     * @return its position in the tracked lines, or -1
+     */
+    private int findMatch(String line, boolean tracing) {
+        int index = 0;
+
+        for (Iterator<Hypothesis> iterator = tracked.iterator(); iterator.hasNext(); index++) {
+            Hypothesis hypothesis = iterator.next();
+
+            if (isSameLine(hypothesis.text, line, tracing)) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean isSameLine(String oldLine, String line, boolean tracing) {
+        // Lines grow a few words at a time while they are being spoken
+        if (oldLine.startsWith(line) || line.startsWith(oldLine) || oldLine.contains(line)) {
+            return true;
+        }
+
+        // Never rejects a pair JaroWinkler would accept, it only looks at the lengths and the prefix
+        if (!JaroWinkler.canBeWithin(oldLine, line, MAX_DISTANCE)) {
+            prefiltered.incrementAndGet();
+            return false;
+        }
+
+        comparisons.incrementAndGet();
+
+        if (tracing) {
+            double distance = JaroWinkler.distance(oldLine, line);
+            boolean same = distance <= MAX_DISTANCE;
+
+            trace.record(traceSource, TraceEvent.LINE_COMPARED, frameId,
+                Double.doubleToRawLongBits(distance), same ? 1 : 0);
+
+            return same;
+        }
+
+        return JaroWinkler.isWithin(oldLine, line, MAX_DISTANCE);
+    }
+
+    /**
+     * A line that went off screen, commits it unless it already was.
+     */
+    private void retire(Hypothesis hypothesis) {
+        if (!hypothesis.committed) {
+            commit(hypothesis);
+        }
+    }
+
+    private void commit(Hypothesis hypothesis) {
+        hypothesis.committed = true;
+
+        for (String recent : recentCommits) {
+            if (recent.equals(hypothesis.text) || isSameLine(recent, hypothesis.text, false)) {
+                if (config.get().isDebugMode()) {
+                    log.debug("Skipping duplicate line: " + hypothesis.text);
+                }
+
+                if (trace != null) {
+                    trace.record(traceSource, TraceEvent.LINE_DUPLICATE, frameId, hypothesis.text.length(), 0);
+                }
+
+                duplicates.incrementAndGet();
+                return;
+            }
+        }
+
+        remember(hypothesis);
+
+        commits.incrementAndGet();
+
+        if (trace != null) {
+            trace.record(traceSource, TraceEvent.LINE_COMMITTED, frameId, hypothesis.text.length(), 0);
+        }
+
+        commitHandler.accept(hypothesis.text);
+    }
+
+    /**
+     * An early committed line changed on screen, the transcript keeps the committed version.
+     */
+    private void revised(Hypothesis hypothesis) {
+        if (config.get().isDebugMode()) {
+            log.debug("Line revised after it was committed: " + hypothesis.text);
+        }
+
+        if (trace != null) {
+            trace.record(traceSource, TraceEvent.LINE_REVISED, frameId, hypothesis.text.length(), 0);
+        }
+
+        revisedAfterCommit.incrementAndGet();
+    }
+
+    private void remember(Hypothesis hypothesis) {
+        if (recentCommits.size() == RECENT_COMMITS) {
+            recentCommits.pollFirst();
+        }
+
+        recentCommits.addLast(hypothesis.text);
+    }
+}
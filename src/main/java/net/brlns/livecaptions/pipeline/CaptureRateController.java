@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import net.brlns.livecaptions.LiveCaptionsLogger;
+import net.brlns.livecaptions.Settings;
+
+/**
+ * Decides how long to wait before the next capture tick.
+ *
+ * While captions are changing, ticks run at the fastest configured rate so
+ * short lines are not missed. Every tick that finds nothing new backs off
+ * exponentially, faster when the caption box is not on screen at all, up
+ * to the slowest configured rate. Ticks that captured nothing, e.g. while
+ * logging is off, keep the current interval. The interval never drops below
+ * the recent OCR latency, ticks faster than OCR can keep up with would only
+ * pile up in the OCR queue and be skipped.
+ *
+ * With AdaptiveCaptureRate off, CaptureRateMs is used as is.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class CaptureRateController {
+
+    private static final double UNCHANGED_BACKOFF = 1.5;
+    private static final double NO_CAPTION_BOX_BACKOFF = 2;
+
+    /**
+     * Leaves OCR some room between ticks when it is the bottleneck.
+     */
+    private static final double OCR_LATENCY_HEADROOM = 1.2;
+
+    private final Supplier<Settings> config;
+
+    private double intervalMs = 0;
+
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong intervalSumMs = new AtomicLong();
+    private final AtomicLong speedUps = new AtomicLong();
+    private final AtomicLong backOffs = new AtomicLong();
+    private final AtomicLong ocrLimited = new AtomicLong();
+    private final AtomicLong atFloor = new AtomicLong();
+    private final AtomicLong atCeiling = new AtomicLong();
+
+    public CaptureRateController(Supplier<Settings> configIn) {
+        config = configIn;
+    }
+
+    /**
+     * Works out the time between the start of this tick and the start of the next one.
+     *
+     * @param result what the tick did, combined over every region
+     * @param ocrLatencyMs how long recent OCR jobs took, 0 if unknown
+     */
+    public synchronized long nextIntervalMs(TickResult result, double ocrLatencyMs) {
+        Settings settings = config.get();
+
+        if (!settings.isAdaptiveCaptureRate()) {
+            intervalMs = LiveCaptionsLogger.clamp(settings.getCaptureRateMs(), 50, 2500);
+
+            return record((long)intervalMs);
+        }
+
+        int floorMs = LiveCaptionsLogger.clamp(settings.getAdaptiveMinCaptureRateMs(), 50, 2500);
+        int ceilingMs = LiveCaptionsLogger.clamp(settings.getAdaptiveMaxCaptureRateMs(), floorMs, 10000);
+
+        switch (result) {
+            case SUBMITTED:
+                intervalMs = floorMs;
+                speedUps.incrementAndGet();
+                break;
+            case UNCHANGED:
+            case OCR_BUSY:
+                intervalMs = Math.max(intervalMs, floorMs) * UNCHANGED_BACKOFF;
+                backOffs.incrementAndGet();
+                break;
+            case NO_FRAME:
+                // Says nothing about the captions, e.g. logging is off or the source had no frame
+                intervalMs = Math.max(intervalMs, floorMs);
+                break;
+            default:
+                intervalMs = Math.max(intervalMs, floorMs) * NO_CAPTION_BOX_BACKOFF;
+                backOffs.incrementAndGet();
+                break;
+        }
+
+        double ocrFloorMs = ocrLatencyMs * OCR_LATENCY_HEADROOM;
+        if (intervalMs < ocrFloorMs) {
+            intervalMs = ocrFloorMs;
+            ocrLimited.incrementAndGet();
+        }
+
+        if (intervalMs <= floorMs) {
+            intervalMs = floorMs;
+            atFloor.incrementAndGet();
+        } else if (intervalMs >= ceilingMs) {
+            intervalMs = ceilingMs;
+            atCeiling.incrementAndGet();
+        }
+
+        return record(Math.round(intervalMs));
+    }
+
+    public synchronized long getIntervalMs() {
+        return Math.round(intervalMs);
+    }
+
+    public String getStatsSummary() {
+        long count = ticks.get();
+
+        return String.format("interval: %dms, avg %.0fms over %d ticks, %d speed ups, %d back offs, %d OCR limited, %d at floor, %d at ceiling",
+            getIntervalMs(), count == 0 ? 0 : intervalSumMs.get() / (double)count, count,
+            speedUps.get(), backOffs.get(), ocrLimited.get(), atFloor.get(), atCeiling.get());
+    }
+
+    private long record(long nextIntervalMs) {
+        ticks.incrementAndGet();
+        intervalSumMs.addAndGet(nextIntervalMs);
+
+        return nextIntervalMs;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.CaptureRegion;
+import net.brlns.livecaptions.Settings;
+import net.brlns.livecaptions.capture.FrameSource;
+import net.brlns.livecaptions.capture.RecordingFrameSource;
+import net.brlns.livecaptions.capture.ReplayFrameSource;
+import net.brlns.livecaptions.capture.SyntheticFrameSource;
+import net.brlns.livecaptions.ocr.OcrWorker;
+import net.brlns.livecaptions.ocr.TesseractEnginePool;
+import net.brlns.livecaptions.trace.FrameTrace;
+import net.sourceforge.tess4j.util.LoadLibs;
+import org.apache.commons.text.similarity.JaroWinklerDistance;
+
+/**
+ * Runs the whole capture pipeline without a desktop and reports
+ * throughput, plus accuracy when the ground truth is known.
+ *
+ * Usage:
+ * --replay <directory> replays a directory of PNG frames
+ * --recording <file.lcfr> replays a frame recording, as fast as OCR allows
+ * --realtime replays the recording with the timing it was recorded with
+ * --synthetic [script.txt] renders the lines of a text file, or a built in sample
+ * --rate <ms> time between frames, 0 (default) runs as fast as OCR allows
+ * --contrast turns ContrastMode on
+ * --full-frames turns IncrementalOcr off
+ * --ocr-threads <n> OCRs up to n frames at the same time, 1 by default
+ * --tessdata <path> --lang <language> Tesseract configuration
+ * --output <file> also writes the transcript to a file
+ * --trace <file> dumps a frame trace to a file, see FrameTraceReader
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class HeadlessRunner {
+
+    private static final List<String> SAMPLE_SCRIPT = List.of(
+        "Welcome everyone and thank you for joining us today",
+        "we are going to talk about the quarterly results",
+        "revenue grew by twelve percent compared to last year",
+        "most of that growth came from our international markets",
+        "before we dive into the numbers let me introduce the team",
+        "please hold your questions until the end of the session"
+    );
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        Settings settings = new Settings();
+        settings.setCaptureRateMs(0);
+
+        String replayPath = null;
+        String recordingPath = null;
+        boolean realtime = false;
+        String scriptPath = null;
+        boolean synthetic = false;
+        String tessDataPath = null;
+        String outputPath = null;
+        String tracePath = null;
+        int ocrThreads = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--replay":
+                    replayPath = args[++i];
+                    break;
+                case "--recording":
+                    recordingPath = args[++i];
+                    break;
+                case "--realtime":
+                    realtime = true;
+                    break;
+                case "--synthetic":
+                    synthetic = true;
+
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                        scriptPath = args[++i];
+                    }
+
+                    break;
+                case "--rate":
+                    settings.setCaptureRateMs(Integer.parseInt(args[++i]));
+                    break;
+                case "--contrast":
+                    settings.setContrastMode(true);
+                    break;
+                case "--full-frames":
+                    settings.setIncrementalOcr(false);
+                    break;
+                case "--ocr-threads":
+                    ocrThreads = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--tessdata":
+                    tessDataPath = args[++i];
+                    break;
+                case "--lang":
+                    settings.setTessLanguage(args[++i]);
+                    break;
+                case "--output":
+                    outputPath = args[++i];
+                    break;
+                case "--trace":
+                    tracePath = args[++i];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        FrameSource source;
+        List<String> groundTruth = Collections.emptyList();
+
+        if (recordingPath != null) {
+            RecordingFrameSource recording = new RecordingFrameSource(new File(recordingPath), realtime);
+
+            log.info("Recording: {} frames over {}s", recording.getFrameCount(),
+                String.format("%.2f", recording.getDurationNanos() / 1_000_000_000d));
+
+            source = recording;
+        } else if (replayPath != null) {
+            source = new ReplayFrameSource(new File(replayPath), settings.getCaptureRateMs());
+        } else if (synthetic) {
+            List<String> script = new ArrayList<>(scriptPath != null
+                ? Files.readAllLines(new File(scriptPath).toPath(), StandardCharsets.UTF_8)
+                : SAMPLE_SCRIPT);
+
+            script.removeIf(String::isBlank);
+
+            SyntheticFrameSource syntheticSource = new SyntheticFrameSource(script,
+                1200, 110, 28, 2, 2, 3, settings.getCaptureRateMs());
+
+            source = syntheticSource;
+            groundTruth = syntheticSource.getGroundTruth();
+        } else {
+            throw new IllegalArgumentException("Either --recording, --replay or --synthetic is required");
+        }
+
+        File tessDataFolder = tessDataPath != null ? new File(tessDataPath) : LoadLibs.extractTessResources("tessdata");
+
+        TesseractEnginePool enginePool = new TesseractEnginePool(ocrThreads);
+        enginePool.configure(tessDataFolder.getAbsolutePath(), settings.getTessLanguage());
+        enginePool.warmUp();
+
+        List<OcrWorker> ocrWorkers = new ArrayList<>();
+
+        for (int i = 0; i < ocrThreads; i++) {
+            ocrWorkers.add(new OcrWorker("OCR-Worker-" + (i + 1), enginePool, 1,
+                (e) -> log.error("OCR failed", e)));
+        }
+
+        List<String> transcript = Collections.synchronizedList(new ArrayList<>());
+
+        TranscriptSink transcriptSink = new TranscriptSink() {
+            @Override
+            public void writeLine(String line) {
+                transcript.add(line);
+            }
+
+            @Override
+            public void endSession() {
+                // Nothing
+            }
+        };
+
+        CaptionPipeline pipeline = new CaptionPipeline(() -> settings, new CaptureRegion("Main"), source,
+            ocrWorkers, transcriptSink, (e) -> log.error("Capture failed", e));
+
+        FrameTrace frameTrace = null;
+
+        if (tracePath != null) {
+            frameTrace = new FrameTrace(1 << 20);
+            frameTrace.setEnabled(true);
+
+            pipeline.setTrace(frameTrace);
+        }
+
+        // When replaying as fast as possible every frame should be read, not skipped
+        pipeline.setSubmitWaitMs(settings.getCaptureRateMs() == 0 && !realtime ? 60_000 : 0);
+
+        long start = System.nanoTime();
+        long frames = 0;
+
+        try (source) {
+            while (!source.isExhausted()) {
+                pipeline.tick();
+                frames++;
+            }
+        }
+
+        for (OcrWorker ocrWorker : ocrWorkers) {
+            ocrWorker.awaitIdle(60_000);
+        }
+
+        pipeline.endSession();
+
+        double elapsedSeconds = (System.nanoTime() - start) / 1_000_000_000d;
+
+        log.info("Frames: {} in {}s ({} fps)", frames,
+            String.format("%.2f", elapsedSeconds), String.format("%.2f", frames / elapsedSeconds));
+        log.info("OCR stats: {}", enginePool.getStatsSummary());
+
+        for (OcrWorker ocrWorker : ocrWorkers) {
+            log.info("OCR worker: {}", ocrWorker.getStatsSummary());
+        }
+
+        log.info("Pipeline: {}", pipeline.getStatsSummary());
+
+        for (String line : transcript) {
+            log.info("Transcript: {}", line);
+        }
+
+        if (!groundTruth.isEmpty()) {
+            reportAccuracy(groundTruth, transcript);
+        }
+
+        if (frameTrace != null) {
+            log.info("Frame trace: {} records written to {}", frameTrace.dump(new File(tracePath)), tracePath);
+        }
+
+        if (outputPath != null) {
+            Files.write(new File(outputPath).toPath(), transcript, StandardCharsets.UTF_8);
+        }
+
+        for (OcrWorker ocrWorker : ocrWorkers) {
+            ocrWorker.shutdown();
+        }
+
+        enginePool.shutdown();
+    }
+
+    /**
+     * Matches every expected line with the most similar transcribed line.
+     */
+    private static void reportAccuracy(List<String> groundTruth, List<String> transcript) {
+        JaroWinklerDistance jaroWinklerDistance = new JaroWinklerDistance();
+
+        int exact = 0;
+        double similaritySum = 0;
+
+        for (String expected : groundTruth) {
+            double best = 0;
+
+            for (String line : transcript) {
+                best = Math.max(best, 1 - jaroWinklerDistance.apply(expected, line));
+            }
+
+            if (transcript.contains(expected)) {
+                exact++;
+            }
+
+            similaritySum += best;
+        }
+
+        log.info("Accuracy: {} expected lines, {} logged, {} exact, {} mean similarity",
+            groundTruth.size(), transcript.size(), exact,
+            String.format("%.3f", similaritySum / groundTruth.size()));
+    }
+}
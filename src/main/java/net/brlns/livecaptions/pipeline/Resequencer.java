@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Hands results to a consumer in sequence order, whatever order they complete in.
+ *
+ * Every sequence number, starting at 0, has to be completed, with null if it
+ * produced no result (failed, timed out, dropped). Results are held back
+ * until every earlier sequence number was completed. Only the first
+ * completion of a sequence number counts.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class Resequencer<T> {
+
+    private static final Object SKIPPED = new Object();
+
+    private final ObjLongConsumer<T> consumer;
+
+    private final Map<Long, Object> held = new HashMap<>();
+    private long next = 0;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong reordered = new AtomicLong();
+    private final AtomicLong maxHeld = new AtomicLong();
+
+    /**
+     * @param consumerIn receives every result along with its sequence number
+     */
+    public Resequencer(ObjLongConsumer<T> consumerIn) {
+        consumer = consumerIn;
+    }
+
+    /**
+     * Completes a sequence number, delivering it and any results held back behind it.
+     *
+     * The consumer runs on the calling thread while holding this object's lock.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void complete(long sequence, @Nullable T result) {
+        if (sequence < next || held.containsKey(sequence)) {
+            return;
+        }
+
+        held.put(sequence, result != null ? result : SKIPPED);
+
+        if (sequence != next) {
+            reordered.incrementAndGet();
+            maxHeld.accumulateAndGet(held.size(), Math::max);
+
+            return;
+        }
+
+        Object value;
+        while ((value = held.remove(next)) != null) {
+            next++;
+
+            if (value == SKIPPED) {
+                skipped.incrementAndGet();
+            } else {
+                delivered.incrementAndGet();
+                consumer.accept((T)value, next - 1);
+            }
+        }
+    }
+
+    public String getStatsSummary() {
+        return String.format("delivered: %d, skipped: %d, out of order: %d, max held: %d",
+            delivered.get(), skipped.get(), reordered.get(), maxHeld.get());
+    }
+}
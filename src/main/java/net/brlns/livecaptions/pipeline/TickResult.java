@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+/**
+ * What a capture tick ended up doing, ordered from least to most activity.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public enum TickResult {
+    /**
+     * Nothing was captured, e.g. logging is off or the source had no frame.
+     */
+    NO_FRAME,
+    /**
+     * The caption box is not on screen.
+     */
+    NO_CAPTION_BOX,
+    /**
+     * The frame is identical to the previous one.
+     */
+    UNCHANGED,
+    /**
+     * The frame changed but the OCR queue was full.
+     */
+    OCR_BUSY,
+    /**
+     * The frame changed and was handed to OCR.
+     */
+    SUBMITTED;
+
+    /**
+     * Combines the results of several regions captured in the same tick,
+     * if any region submitted a frame the tick counts as submitted.
+     */
+    public TickResult combine(TickResult other) {
+        return other.ordinal() > ordinal() ? other : this;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+/**
+ * Receives the lines the capture pipeline considers finished.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public interface TranscriptSink {
+
+    /**
+     * Writes a finished line to the current transcript.
+     */
+    void writeLine(String line);
+
+    /**
+     * Ends the current transcript, the next line starts a new one.
+     *
+     * Called when the caption window goes away.
+     */
+    void endSession();
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.process;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Tells whether a process with a given executable name is running.
+ *
+ * Walking every process and querying its command line is expensive, so it is
+ * only done until the process is found. From then on its handle is watched
+ * through ProcessHandle.onExit(), and a new scan only starts once it exits.
+ * While the process is not running, scans happen at most every
+ * RESCAN_INTERVAL_MS. Scans run on the given executor, isRunning() never blocks.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class ProcessWatcher {
+
+    /**
+     * How often to look for the process while it is not running.
+     */
+    public static final long RESCAN_INTERVAL_MS = 5000;
+
+    private final Supplier<String> processName;
+    private final Executor executor;
+    private final Consumer<Throwable> errorHandler;
+
+    @Nullable
+    private volatile ProcessHandle watched;
+    @Nullable
+    private volatile String watchedName;
+
+    private volatile long lastScanNanos;
+    private volatile boolean scanned = false;
+    private final AtomicBoolean scanning = new AtomicBoolean();
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong scanNanos = new AtomicLong();
+    private final AtomicLong processesExamined = new AtomicLong();
+    private final AtomicLong exits = new AtomicLong();
+
+    /**
+     * @param processNameIn supplies the executable name to look for, e.g. LiveCaptions.exe, case insensitive
+     * @param executorIn runs the scans, they block for a while
+     * @param errorHandlerIn receives exceptions thrown while scanning
+     */
+    public ProcessWatcher(Supplier<String> processNameIn, Executor executorIn, Consumer<Throwable> errorHandlerIn) {
+        processName = processNameIn;
+        executor = executorIn;
+        errorHandler = errorHandlerIn;
+
+        scanSoon();
+    }
+
+    /**
+     * Returns what is currently known, starting a scan in the background when one is due.
+     *
+     * @return true if the process is running, false if it is not or has not been found yet
+     */
+    public boolean isRunning() {
+        checks.incrementAndGet();
+
+        String name = processName.get();
+
+        if (watched != null) {
+            if (name.equals(watchedName)) {
+                return true;
+            }
+
+            // The name was changed, whatever we were watching is no longer relevant
+            watched = null;
+            scanSoon();
+        }
+
+        long now = System.nanoTime();
+        if (now - lastScanNanos >= TimeUnit.MILLISECONDS.toNanos(RESCAN_INTERVAL_MS)
+            && scanning.compareAndSet(false, true)) {
+            lastScanNanos = now;
+
+            executor.execute(() -> {
+                try {
+                    scan(name);
+                } catch (RuntimeException e) {
+                    errorHandler.accept(e);
+                } finally {
+                    scanning.set(false);
+                }
+            });
+        }
+
+        return false;
+    }
+
+    /**
+     * Whether a scan has completed since this watcher was created.
+     */
+    public boolean hasScanned() {
+        return scanned;
+    }
+
+    /**
+     * The process id being watched, or -1 if the process is not running.
+     */
+    public long getWatchedPid() {
+        ProcessHandle handle = watched;
+
+        return handle != null ? handle.pid() : -1;
+    }
+
+    public String getStatsSummary() {
+        long scanCount = scans.get();
+
+        return String.format("checks: %d, scans: %d (avg %.1fms, %d processes examined), exits seen: %d, watching pid: %d",
+            checks.get(), scanCount, scanCount == 0 ? 0 : scanNanos.get() / (double)scanCount / 1_000_000d,
+            processesExamined.get(), exits.get(), getWatchedPid());
+    }
+
+    private void scan(String name) {
+        long start = System.nanoTime();
+
+        Optional<ProcessHandle> found;
+        try {
+            found = ProcessHandle.allProcesses()
+                .filter((handle) -> {
+                    processesExamined.incrementAndGet();
+
+                    return matches(handle, name);
+                })
+                .findFirst();
+        } finally {
+            scans.incrementAndGet();
+            scanNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        scanned = true;
+
+        if (found.isPresent()) {
+            ProcessHandle handle = found.get();
+
+            watchedName = name;
+            watched = handle;
+
+            log.debug("Watching {} with pid {}", name, handle.pid());
+
+            // Completes right away if it already exited in the meantime
+            handle.onExit().thenRun(() -> {
+                if (watched == handle) {
+                    watched = null;
+                    exits.incrementAndGet();
+
+                    // It may have been restarted, look for it again on the next check
+                    scanSoon();
+
+                    log.debug("{} with pid {} exited", name, handle.pid());
+                }
+            });
+        }
+    }
+
+    private void scanSoon() {
+        lastScanNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(RESCAN_INTERVAL_MS);
+    }
+
+    /**
+     * Compares the executable name of the process, ignoring its directory.
+     */
+    private static boolean matches(ProcessHandle handle, String name) {
+        return handle.info().command().map((command) -> {
+            int separator = Math.max(command.lastIndexOf('/'), command.lastIndexOf('\\'));
+
+            return command.substring(separator + 1).equalsIgnoreCase(name);
+        }).orElse(false);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size ring of binary per-frame records, the newest ones overwrite the oldest.
+ *
+ * Recording stores a handful of longs into a preallocated array, it neither
+ * allocates nor formats anything, so tracing barely changes the timing it is
+ * meant to show. Any thread may record. dump() writes what the ring holds to
+ * a file that FrameTraceReader turns into text.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class FrameTrace {
+
+    static final int MAGIC = 0x4C434654;// LCFT
+    static final int VERSION = 1;
+
+    /**
+     * Sequence + 1 (0 while being written), timestamp, frame, source and event, a, b.
+     */
+    private static final int RECORD_LONGS = 6;
+
+    private final AtomicLongArray records;
+    private final int capacity;
+
+    private final AtomicLong cursor = new AtomicLong();
+    private final List<String> sources = new CopyOnWriteArrayList<>();
+
+    private volatile boolean enabled = false;
+
+    /**
+     * @param capacityIn how many records are kept, rounded up to a power of two
+     */
+    public FrameTrace(int capacityIn) {
+        capacity = Integer.highestOneBit(Math.max(2, capacityIn - 1)) << 1;
+        records = new AtomicLongArray(capacity * RECORD_LONGS);
+    }
+
+    /**
+     * Records are dropped while disabled, disabled by default.
+     */
+    public void setEnabled(boolean enabledIn) {
+        enabled = enabledIn;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Names a source of records, e.g. a capture region.
+     *
+     * @return the id to record with
+     */
+    public int registerSource(String name) {
+        synchronized (sources) {
+            sources.add(name);
+
+            return sources.size() - 1;
+        }
+    }
+
+    public void record(int source, TraceEvent event, long frame) {
+        record(source, event, frame, 0, 0);
+    }
+
+    public void record(int source, TraceEvent event, long frame, long a, long b) {
+        if (!enabled) {
+            return;
+        }
+
+        long sequence = cursor.getAndIncrement();
+        int base = (int)(sequence & (capacity - 1)) * RECORD_LONGS;
+
+        // Readers skip the record until its header is written back
+        records.set(base, 0);
+        records.lazySet(base + 1, System.nanoTime());
+        records.lazySet(base + 2, frame);
+        records.lazySet(base + 3, (long)source << 32 | event.ordinal());
+        records.lazySet(base + 4, a);
+        records.lazySet(base + 5, b);
+        records.set(base, sequence + 1);
+    }
+
+    /**
+     * How many records were made since the start, including overwritten ones.
+     */
+    public long getRecorded() {
+        return cursor.get();
+    }
+
+    /**
+     * Writes the records currently in the ring to a file, oldest first.
+     *
+     * @return how many records were written
+     */
+    public int dump(File file) throws IOException {
+        long end = cursor.get();
+        long start = Math.max(0, end - capacity);
+
+        int written = 0;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            // Lets the reader turn nanoTime stamps into wall clock time
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(System.nanoTime());
+
+            List<String> names = List.copyOf(sources);
+            out.writeInt(names.size());
+
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+
+            for (long sequence = start; sequence < end; sequence++) {
+                int base = (int)(sequence & (capacity - 1)) * RECORD_LONGS;
+
+                if (records.get(base) != sequence + 1) {
+                    continue;
+                }
+
+                long nanos = records.get(base + 1);
+                long frame = records.get(base + 2);
+                long kind = records.get(base + 3);
+                long a = records.get(base + 4);
+                long b = records.get(base + 5);
+
+                // Overwritten while we were reading it
+                if (records.get(base) != sequence + 1) {
+                    continue;
+                }
+
+                out.writeLong(sequence);
+                out.writeLong(nanos);
+                out.writeLong(frame);
+                out.writeInt((int)(kind >>> 32));
+                out.writeInt((int)kind);
+                out.writeLong(a);
+                out.writeLong(b);
+
+                written++;
+            }
+        }
+
+        return written;
+    }
+
+    public String getStatsSummary() {
+        return String.format("%s, %d records, %d kept", enabled ? "enabled" : "disabled",
+            cursor.get(), Math.min(cursor.get(), capacity));
+    }
+}
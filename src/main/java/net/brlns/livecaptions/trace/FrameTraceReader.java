@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns a frame trace dump into text, one record per line.
+ *
+ * Usage: FrameTraceReader <dump> [output.txt], prints to the console without an output file.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class FrameTraceReader {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FrameTraceReader <dump> [output.txt]");
+            System.exit(1);
+        }
+
+        if (args.length > 1) {
+            try (PrintStream out = new PrintStream(new File(args[1]), StandardCharsets.UTF_8)) {
+                System.out.println(read(new File(args[0]), out) + " records");
+            }
+        } else {
+            read(new File(args[0]), System.out);
+        }
+    }
+
+    /**
+     * @return how many records were read
+     */
+    public static int read(File file, PrintStream out) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FrameTrace.MAGIC) {
+                throw new IOException(file + " is not a frame trace");
+            }
+
+            int version = in.readInt();
+            if (version != FrameTrace.VERSION) {
+                throw new IOException("Unsupported frame trace version " + version);
+            }
+
+            long dumpMillis = in.readLong();
+            long dumpNanos = in.readLong();
+
+            List<String> sources = new ArrayList<>();
+            int sourceCount = in.readInt();
+
+            for (int i = 0; i < sourceCount; i++) {
+                sources.add(in.readUTF());
+            }
+
+            int count = 0;
+            long previousNanos = 0;
+
+            while (true) {
+                long nanos;
+                try {
+                    in.readLong();// Sequence, records are already in order
+                    nanos = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                long frame = in.readLong();
+                int source = in.readInt();
+                int ordinal = in.readInt();
+                long a = in.readLong();
+                long b = in.readLong();
+
+                TraceEvent event = TraceEvent.of(ordinal);
+                Instant time = Instant.ofEpochMilli(dumpMillis - (dumpNanos - nanos) / 1_000_000);
+
+                out.println(String.format(Locale.ROOT, "%s %+10.3fms %s %s %s %s",
+                    time, count == 0 ? 0 : (nanos - previousNanos) / 1_000_000d,
+                    source >= 0 && source < sources.size() ? sources.get(source) : "#" + source,
+                    frameOf(event, frame),
+                    event != null ? event : "UNKNOWN(" + ordinal + ")",
+                    describe(event, a, b)));
+
+                previousNanos = nanos;
+                count++;
+            }
+
+            return count;
+        }
+    }
+
+    private static String frameOf(TraceEvent event, long frame) {
+        String prefix = event != null && event.isOcrSequence() ? "ocr" : "tick";
+
+        return frame < 0 ? prefix + " ?" : prefix + " " + frame;
+    }
+
+    private static String describe(TraceEvent event, long a, long b) {
+        if (event == null) {
+            return a + " " + b;
+        }
+
+        switch (event) {
+            case PROBE_FAILED:
+            case NO_CAPTION_BOX:
+                return String.format("corner %d rgb %d:%d:%d", a, (b >> 16) & 0xFF, (b >> 8) & 0xFF, b & 0xFF);
+            case CAPTURED:
+            case FILTERED:
+                return String.format(Locale.ROOT, "%.3fms", a / 1_000_000d);
+            case RECOGNIZED:
+                return String.format(Locale.ROOT, "%.3fms %d chars", a / 1_000_000d, b);
+            case OCR_BUSY:
+            case SUBMITTED:
+                return "ocr " + a;
+            case LINE_COMPARED:
+                return String.format(Locale.ROOT, "distance %.4f %s", Double.longBitsToDouble(a), b != 0 ? "same" : "different");
+            case LINE_DUPLICATE:
+            case LINE_COMMITTED:
+            case LINE_REVISED:
+                return a + " chars";
+            default:
+                return "";
+        }
+    }
+}
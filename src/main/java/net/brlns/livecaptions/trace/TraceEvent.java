@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.trace;
+
+/**
+ * What a frame trace record is about.
+ *
+ * Records of the capture thread are numbered by the pipeline's tick, records
+ * of the OCR side by the OCR sequence number SUBMITTED links the tick to.
+ * Every event carries up to two values, described next to each event.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public enum TraceEvent {
+    /**
+     * The corner probe found a corner that is not the caption box colour.
+     * a: the corner, b: its RGB.
+     */
+    PROBE_FAILED(false),
+    /**
+     * A frame was grabbed. a: capture time in nanoseconds.
+     */
+    CAPTURED(false),
+    /**
+     * A corner of the frame is not the caption box colour.
+     * a: the corner, b: its RGB.
+     */
+    NO_CAPTION_BOX(false),
+    /**
+     * The frame did not change since the last OCR'd one.
+     */
+    UNCHANGED(false),
+    /**
+     * The frame replaced one that was still waiting for OCR.
+     */
+    STALE_REPLACED(false),
+    /**
+     * The frame was skipped, OCR had no room for it. a: the OCR sequence number given up.
+     */
+    OCR_BUSY(false),
+    /**
+     * The frame was queued for OCR. a: its OCR sequence number.
+     */
+    SUBMITTED(false),
+    /**
+     * The frame was filtered. a: filter time in nanoseconds.
+     */
+    FILTERED(true),
+    /**
+     * The frame went through OCR. a: OCR time in nanoseconds, b: length of the text.
+     */
+    RECOGNIZED(true),
+    /**
+     * A new line was compared with a tracked line.
+     * a: the JaroWinkler distance as double bits, b: 1 if they were taken as the same line.
+     */
+    LINE_COMPARED(true),
+    /**
+     * A finished line was dropped as a duplicate of a recent one. a: its length.
+     */
+    LINE_DUPLICATE(true),
+    /**
+     * A finished line was handed to the transcript. a: its length.
+     */
+    LINE_COMMITTED(true),
+    /**
+     * A line changed on screen after it was committed early, the transcript keeps
+     * the committed version. a: the length of the revision.
+     */
+    LINE_REVISED(true);
+
+    private static final TraceEvent[] VALUES = values();
+
+    private final boolean ocrSequence;
+
+    TraceEvent(boolean ocrSequenceIn) {
+        ocrSequence = ocrSequenceIn;
+    }
+
+    /**
+     * Whether the record is numbered by OCR sequence rather than by tick.
+     */
+    public boolean isOcrSequence() {
+        return ocrSequence;
+    }
+
+    static TraceEvent of(int ordinal) {
+        return ordinal >= 0 && ordinal < VALUES.length ? VALUES[ordinal] : null;
+    }
+}
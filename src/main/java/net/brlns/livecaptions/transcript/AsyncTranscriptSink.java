@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.transcript;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.Settings;
+import net.brlns.livecaptions.metrics.LatencyHistogram;
+import net.brlns.livecaptions.metrics.MetricsRegistry;
+import net.brlns.livecaptions.pipeline.TranscriptSink;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Hands finished lines over to a dedicated writer thread.
+ *
+ * The pipeline finishes lines on the OCR thread while holding its line lock,
+ * so writing to the disk there means a slow disk or network share stalls OCR.
+ * Lines are published to a bounded lock-free queue instead and the writer
+ * thread drains it into the delegate sink. When the queue is full the
+ * TranscriptBackpressure setting decides what happens. With SPILL, lines go
+ * to a temporary file until the writer has caught up with the queue and
+ * the file, so they are still written in order.
+ *
+ * Session ends are not queued, each line carries the session it belongs to
+ * and the writer ends the delegate's session when that changes, or once the
+ * queue is empty.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class AsyncTranscriptSink implements TranscriptSink {
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static class Entry {
+
+        private final String line;
+        private final long session;
+        private final long enqueuedNanos;
+
+        private Entry(String lineIn, long sessionIn) {
+            this(lineIn, sessionIn, System.nanoTime());
+        }
+
+        private Entry(String lineIn, long sessionIn, long enqueuedNanosIn) {
+            line = lineIn;
+            session = sessionIn;
+            enqueuedNanos = enqueuedNanosIn;
+        }
+    }
+
+    /**
+     * Lines past the queue bound, read back in the order they were appended.
+     *
+     * The file is emptied whenever everything was read, it only grows while
+     * the writer is behind. Callers hold the sink's spill lock.
+     */
+    private static class SpillFile {
+
+        private final File file;
+        private final RandomAccessFile data;
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(buffer);
+
+        private long writePosition = 0;
+        private long readPosition = 0;
+        private int size = 0;
+
+        private SpillFile() throws IOException {
+            file = File.createTempFile("transcript_spill_", ".bin");
+            file.deleteOnExit();
+
+            data = new RandomAccessFile(file, "rw");
+        }
+
+        private void append(Entry entry) throws IOException {
+            buffer.reset();
+            out.writeLong(entry.session);
+            out.writeLong(entry.enqueuedNanos);
+            out.writeUTF(entry.line);
+
+            data.seek(writePosition);
+            data.write(buffer.toByteArray());
+
+            writePosition += buffer.size();
+            size++;
+        }
+
+        /**
+         * @return the oldest line, or null if every line was read
+         */
+        @Nullable
+        private Entry read() throws IOException {
+            if (size == 0) {
+                return null;
+            }
+
+            data.seek(readPosition);
+
+            long session = data.readLong();
+            long enqueuedNanos = data.readLong();
+            Entry entry = new Entry(data.readUTF(), session, enqueuedNanos);
+
+            readPosition = data.getFilePointer();
+
+            if (--size == 0) {
+                clear();
+            }
+
+            return entry;
+        }
+
+        private void clear() throws IOException {
+            data.setLength(0);
+
+            writePosition = 0;
+            readPosition = 0;
+            size = 0;
+        }
+
+        private void close() throws IOException {
+            data.close();
+
+            if (!file.delete()) {
+                log.warn("Could not delete {}", file);
+            }
+        }
+    }
+
+    private final Supplier<Settings> config;
+    private final TranscriptSink delegate;
+    private final Consumer<Throwable> errorHandler;
+
+    @Getter
+    private final int capacity;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final Object spillLock = new Object();
+    @Nullable
+    private SpillFile spillFile = null;
+    private final AtomicInteger spillDepth = new AtomicInteger();
+
+    // Set while lines wait in the spill file, new lines go there too so they stay in order
+    private volatile boolean spilling = false;
+
+    private final AtomicLong session = new AtomicLong();
+    private long writtenSession = 0;
+
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    /**
+     * @param configIn supplies the current settings, they may be replaced at any time
+     * @param delegateIn the sink lines are written to, only called from the writer thread
+     * @param capacityIn how many lines may wait before backpressure kicks in
+     * @param errorHandlerIn receives exceptions thrown by the delegate
+     */
+    public AsyncTranscriptSink(Supplier<Settings> configIn, TranscriptSink delegateIn, int capacityIn,
+        Consumer<Throwable> errorHandlerIn) {
+        config = configIn;
+        delegate = delegateIn;
+        capacity = Math.max(1, capacityIn);
+        errorHandler = errorHandlerIn;
+
+        writerThread = new Thread(this::runWriter, "Transcript-Queue");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void writeLine(String line) {
+        if (closed) {
+            log.warn("Transcript queue has been closed, discarding line: {}", line);
+            return;
+        }
+
+        Entry entry = new Entry(line, session.get());
+
+        if (spilling && spill(entry)) {
+            return;
+        }
+
+        if (depth.get() >= capacity) {
+            BackpressurePolicy policy = config.get().getTranscriptBackpressure();
+
+            if (policy == BackpressurePolicy.DROP_OLDEST) {
+                while (depth.get() >= capacity && queue.poll() != null) {
+                    depth.decrementAndGet();
+                    dropped.incrementAndGet();
+                }
+            } else if (policy == BackpressurePolicy.SPILL) {
+                if (spill(entry)) {
+                    return;
+                }
+
+                // The spill file failed, the line waits in memory instead
+            } else {
+                blocked.incrementAndGet();
+
+                while (depth.get() >= capacity && !closed) {
+                    LockSupport.unpark(writerThread);
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+            }
+        }
+
+        queue.offer(entry);
+        enqueued.incrementAndGet();
+
+        int currentDepth = depth.incrementAndGet();
+        maxDepth.accumulateAndGet(currentDepth, Math::max);
+
+        LockSupport.unpark(writerThread);
+    }
+
+    @Override
+    public void endSession() {
+        session.incrementAndGet();
+
+        LockSupport.unpark(writerThread);
+    }
+
+    /**
+     * Writes out everything still queued and stops the writer thread, called before exit.
+     */
+    public void close() {
+        closed = true;
+
+        LockSupport.unpark(writerThread);
+
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (writerThread.isAlive()) {
+            log.warn("Transcript writer did not finish, {} lines were not written", depth.get() + spillDepth.get());
+        }
+
+        synchronized (spillLock) {
+            if (spillFile != null) {
+                try {
+                    spillFile.close();
+                } catch (IOException e) {
+                    errorHandler.accept(e);
+                }
+
+                spillFile = null;
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public int getSpillDepth() {
+        return spillDepth.get();
+    }
+
+    /**
+     * Exposes the counters of this queue, with the given labels.
+     */
+    public void registerMetrics(MetricsRegistry registry, String... labels) {
+        registry.counter("livecaptions_transcript_lines_written_total", "Lines handed to the transcript writer",
+            written::get, labels);
+        registry.counter("livecaptions_transcript_lines_dropped_total", "Lines dropped because the queue was full",
+            dropped::get, labels);
+        registry.gauge("livecaptions_transcript_queue_depth", "Lines waiting for the transcript writer",
+            this::getQueueDepth, labels);
+        registry.gauge("livecaptions_transcript_spill_depth", "Lines waiting for the transcript writer in the spill file",
+            this::getSpillDepth, labels);
+        registry.histogram("livecaptions_transcript_write_latency", "Time from a line being finished to it being written",
+            writeLatency, labels);
+    }
+
+    public String getStatsSummary() {
+        long count = writeLatency.getCount();
+
+        long[] buckets = new long[LatencyHistogram.BUCKET_COUNT];
+        writeLatency.copyCounts(buckets);
+
+        return String.format("%d queued, %d written, depth %d (max %d/%d), %d dropped, %d spilled (%d waiting), %d blocked, "
+            + "write latency avg %.2fms p99 %.2fms",
+            enqueued.get(), written.get(), depth.get(), maxDepth.get(), capacity, dropped.get(),
+            spilled.get(), spillDepth.get(), blocked.get(),
+            count == 0 ? 0 : writeLatency.getSumMicros() / (double)count / 1000d,
+            LatencyHistogram.valueAtQuantile(buckets, 0.99) / 1000d);
+    }
+
+    /**
+     * Appends the line to the spill file.
+     *
+     * @return false if the file could not be written
+     */
+    private boolean spill(Entry entry) {
+        synchronized (spillLock) {
+            try {
+                if (spillFile == null) {
+                    spillFile = new SpillFile();
+                }
+
+                spillFile.append(entry);
+            } catch (IOException e) {
+                errorHandler.accept(e);
+                return false;
+            }
+
+            spilling = true;
+        }
+
+        spilled.incrementAndGet();
+        enqueued.incrementAndGet();
+        spillDepth.incrementAndGet();
+
+        LockSupport.unpark(writerThread);
+        return true;
+    }
+
+    /**
+     * Takes the oldest line out of the spill file, once the queue is empty.
+     */
+    @Nullable
+    private Entry unspill() {
+        synchronized (spillLock) {
+            if (spillFile == null) {
+                spilling = false;
+                return null;
+            }
+
+            try {
+                Entry entry = spillFile.read();
+
+                if (entry != null) {
+                    spillDepth.decrementAndGet();
+                } else {
+                    spilling = false;
+                }
+
+                return entry;
+            } catch (IOException e) {
+                errorHandler.accept(e);
+
+                // Whatever is left cannot be read back
+                int lost = spillDepth.getAndSet(0);
+                dropped.addAndGet(lost);
+                log.warn("Lost {} spilled transcript lines", lost);
+
+                try {
+                    spillFile.clear();
+                } catch (IOException e2) {
+                    errorHandler.accept(e2);
+                }
+
+                spilling = false;
+                return null;
+            }
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            // Read before polling, a session that ended before the queue emptied out ends below
+            long currentSession = session.get();
+
+            Entry entry = queue.poll();
+
+            if (entry != null) {
+                depth.decrementAndGet();
+
+                write(entry);
+                continue;
+            }
+
+            // Spilled lines came after everything in the queue
+            if (spilling) {
+                entry = unspill();
+
+                if (entry != null) {
+                    write(entry);
+                    continue;
+                }
+            }
+
+            if (writtenSession < currentSession) {
+                endDelegateSession(currentSession);
+            }
+
+            if (closed) {
+                if (queue.isEmpty() && !spilling) {
+                    return;
+                }
+
+                continue;
+            }
+
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+
+    private void write(Entry entry) {
+        if (entry.session > writtenSession) {
+            endDelegateSession(entry.session);
+        }
+
+        try {
+            delegate.writeLine(entry.line);
+        } catch (Exception e) {
+            errorHandler.accept(e);
+        }
+
+        written.incrementAndGet();
+        writeLatency.recordSince(entry.enqueuedNanos);
+    }
+
+    private void endDelegateSession(long sessionIn) {
+        try {
+            delegate.endSession();
+        } catch (Exception e) {
+            errorHandler.accept(e);
+        }
+
+        writtenSession = sessionIn;
+    }
+}
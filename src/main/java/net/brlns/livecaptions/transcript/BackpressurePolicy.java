@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.transcript;
+
+/**
+ * What to do with a finished line when the transcript queue is full.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public enum BackpressurePolicy {
+    /**
+     * Wait for room in the queue, holding up OCR until the disk catches up.
+     */
+    BLOCK,
+    /**
+     * Discard the oldest queued line to make room.
+     */
+    DROP_OLDEST,
+    /**
+     * Write the line to a temporary file that the writer catches up on in order,
+     * nothing is lost and memory stays bounded.
+     */
+    SPILL
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.transcript;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import net.brlns.livecaptions.LiveCaptionsLogger;
+import net.brlns.livecaptions.Settings;
+import net.brlns.livecaptions.pipeline.TranscriptSink;
+import net.brlns.livecaptions.util.Nullable;
+
+/**
+ * Writes finished lines to the transcript file through a long-lived channel.
+ *
+ * Lines are batched in memory and written out once TranscriptFlushIntervalMs
+ * passes or FLUSH_BYTES pile up, and synced to the disk every
+ * TranscriptFsyncIntervalMs. The file is closed after TranscriptIdleReleaseMs
+ * without writes so other programs can rename or delete it while captions
+ * are paused, the next line reopens it.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@Slf4j
+public class TranscriptWriter implements TranscriptSink {
+
+    /**
+     * Batches larger than this are written right away.
+     */
+    public static final int FLUSH_BYTES = 8192;
+
+    private static final long CHECK_INTERVAL_MS = 100;
+
+    // Same output FileWriter and PrintWriter.println() used to produce
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Supplier<Settings> config;
+    private final Supplier<File> fileFactory;
+    private final Consumer<Throwable> errorHandler;
+
+    private final ScheduledExecutorService scheduler;
+
+    private ByteBuffer pending = ByteBuffer.allocate(FLUSH_BYTES * 2);
+
+    @Nullable
+    private File currentFile;
+    @Nullable
+    private FileChannel channel;
+
+    private long firstPendingNanos;
+    private long lastWriteNanos;
+    private long lastSyncNanos;
+    private boolean unsynced = false;
+
+    private final AtomicLong linesWritten = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+
+    /**
+     * @param configIn supplies the current settings, they may be replaced at any time
+     * @param fileFactoryIn creates the file for a new transcript
+     * @param errorHandlerIn receives exceptions thrown while writing
+     */
+    public TranscriptWriter(Supplier<Settings> configIn, Supplier<File> fileFactoryIn, Consumer<Throwable> errorHandlerIn) {
+        config = configIn;
+        fileFactory = fileFactoryIn;
+        errorHandler = errorHandlerIn;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "Transcript-Writer");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(this::checkPolicies, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void writeLine(String line) {
+        if (currentFile == null) {
+            currentFile = fileFactory.get();
+        }
+
+        byte[] bytes = (line + LINE_SEPARATOR).getBytes(CHARSET);
+
+        if (pending.remaining() < bytes.length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes.length));
+            pending.flip();
+            grown.put(pending);
+
+            pending = grown;
+        }
+
+        if (pending.position() == 0) {
+            firstPendingNanos = System.nanoTime();
+        }
+
+        pending.put(bytes);
+        linesWritten.incrementAndGet();
+
+        if (pending.position() >= FLUSH_BYTES || getFlushIntervalMs() == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes out and syncs everything pending, then closes the current transcript.
+     */
+    @Override
+    public synchronized void endSession() {
+        flush();
+        release();
+
+        currentFile = null;
+    }
+
+    /**
+     * Ends the current transcript and stops the background flushing, called before exit.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+
+        endSession();
+    }
+
+    /**
+     * The transcript lines are currently being written to, if any.
+     */
+    @Nullable
+    public synchronized File getCurrentFile() {
+        return currentFile;
+    }
+
+    public String getStatsSummary() {
+        return String.format("%d lines, %d flushes, %d syncs, %d opens",
+            linesWritten.get(), flushes.get(), syncs.get(), opens.get());
+    }
+
+    private synchronized void checkPolicies() {
+        try {
+            long now = System.nanoTime();
+
+            if (pending.position() > 0 && now - firstPendingNanos >= TimeUnit.MILLISECONDS.toNanos(getFlushIntervalMs())) {
+                flush();
+            }
+
+            if (channel == null) {
+                return;
+            }
+
+            int fsyncIntervalMs = getFsyncIntervalMs();
+            if (unsynced && fsyncIntervalMs > 0 && now - lastSyncNanos >= TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs)) {
+                sync();
+            }
+
+            if (now - lastWriteNanos >= TimeUnit.MILLISECONDS.toNanos(getIdleReleaseMs())) {
+                if (config.get().isDebugMode()) {
+                    log.debug("Transcript idle, releasing " + currentFile);
+                }
+
+                release();
+            }
+        } catch (Exception e) {
+            // Keep the schedule alive
+            errorHandler.accept(e);
+        }
+    }
+
+    private void flush() {
+        if (pending.position() == 0 || currentFile == null) {
+            return;
+        }
+
+        pending.flip();
+
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(currentFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+                opens.incrementAndGet();
+                lastSyncNanos = System.nanoTime();
+            }
+
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+
+            flushes.incrementAndGet();
+
+            lastWriteNanos = System.nanoTime();
+            unsynced = true;
+
+            if (getFsyncIntervalMs() == 0) {
+                sync();
+            }
+        } catch (IOException e) {// The batch is lost, same as a failed line used to be
+            errorHandler.accept(e);
+
+            closeChannel();
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private void sync() {
+        if (channel == null || !unsynced) {
+            return;
+        }
+
+        try {
+            channel.force(false);
+
+            syncs.incrementAndGet();
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        }
+
+        lastSyncNanos = System.nanoTime();
+        unsynced = false;
+    }
+
+    /**
+     * Syncs and closes the channel, the next flush reopens the same file.
+     */
+    private void release() {
+        sync();
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        } finally {
+            channel = null;
+            unsynced = false;
+        }
+    }
+
+    private int getFlushIntervalMs() {
+        return LiveCaptionsLogger.clamp(config.get().getTranscriptFlushIntervalMs(), 0, 60000);
+    }
+
+    private int getFsyncIntervalMs() {
+        return LiveCaptionsLogger.clamp(config.get().getTranscriptFsyncIntervalMs(), 0, 600000);
+    }
+
+    private int getIdleReleaseMs() {
+        return LiveCaptionsLogger.clamp(config.get().getTranscriptIdleReleaseMs(), 1000, 600000);
+    }
+}
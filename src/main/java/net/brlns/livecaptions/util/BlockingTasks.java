@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for blocking tasks, e.g. process checks and registry
+ * calls, so they hold up neither the capture loop, the tray menu nor the
+ * common fork join pool.
+ *
+ * This is the Java 11 version, tasks run on a cached pool of daemon platform
+ * threads. Java 21+ runtimes load the multi-release version from
+ * src/main/java21 instead, which can run every task on a virtual thread.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public final class BlockingTasks {
+
+    private BlockingTasks() {
+
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        return false;
+    }
+
+    /**
+     * @param name used for naming the threads
+     * @param virtualThreads ignored, this runtime has no virtual threads
+     */
+    public static ExecutorService newExecutor(String name, boolean virtualThreads) {
+        return newPlatformExecutor(name);
+    }
+
+    static ExecutorService newPlatformExecutor(String name) {
+        AtomicInteger threadCounter = new AtomicInteger();
+
+        return Executors.newCachedThreadPool((Runnable r) -> {
+            Thread thread = new Thread(r, name + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+}
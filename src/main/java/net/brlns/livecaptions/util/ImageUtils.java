@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Helpers for reading pixels straight from an image's backing array.
+ *
+ * Images returned by Robot are TYPE_INT_RGB backed by a DataBufferInt, while
+ * filtered images are TYPE_BYTE_GRAY backed by a DataBufferByte. Reading from
+ * the arrays directly avoids the per-pixel overhead of getRGB().
+ * Subimages share the parent's array, so offsets and strides must be honored.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class ImageUtils {
+
+    /**
+     * Checks whether the image stores one packed RGB int per pixel.
+     */
+    public static boolean isIntPacked(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+
+        return raster.getDataBuffer() instanceof DataBufferInt
+            && raster.getSampleModel() instanceof SinglePixelPackedSampleModel;
+    }
+
+    /**
+     * Returns the backing array of an int packed image.
+     *
+     * @see isIntPacked(BufferedImage)
+     */
+    public static int[] getIntData(BufferedImage image) {
+        return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Returns the index of pixel (0, 0) within the backing array of an int packed image.
+     */
+    public static int getIntOffset(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+
+        return raster.getDataBuffer().getOffset()
+            - raster.getSampleModelTranslateY() * getIntStride(image)
+            - raster.getSampleModelTranslateX();
+    }
+
+    /**
+     * Returns the distance between two rows within the backing array of an int packed image.
+     */
+    public static int getIntStride(BufferedImage image) {
+        return ((SinglePixelPackedSampleModel)image.getRaster().getSampleModel()).getScanlineStride();
+    }
+
+    /**
+     * Checks whether the image stores one gray byte per pixel.
+     */
+    public static boolean isByteGray(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+
+        return raster.getDataBuffer() instanceof DataBufferByte
+            && raster.getNumBands() == 1
+            && raster.getSampleModel() instanceof ComponentSampleModel
+            && ((ComponentSampleModel)raster.getSampleModel()).getPixelStride() == 1;
+    }
+
+    /**
+     * Returns the backing array of a gray byte image.
+     *
+     * @see isByteGray(BufferedImage)
+     */
+    public static byte[] getByteData(BufferedImage image) {
+        return ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Returns the index of pixel (0, 0) within the backing array of a gray byte image.
+     */
+    public static int getByteOffset(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+
+        return raster.getDataBuffer().getOffset()
+            - raster.getSampleModelTranslateY() * getByteStride(image)
+            - raster.getSampleModelTranslateX();
+    }
+
+    /**
+     * Returns the distance between two rows within the backing array of a gray byte image.
+     */
+    public static int getByteStride(BufferedImage image) {
+        return ((ComponentSampleModel)image.getRaster().getSampleModel()).getScanlineStride();
+    }
+}
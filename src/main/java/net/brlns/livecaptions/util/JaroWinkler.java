@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.util;
+
+import java.util.Arrays;
+
+/**
+ * JaroWinkler distance, scoring exactly like commons-text's JaroWinklerDistance.
+ *
+ * The reference implementation scans the whole match window of the longer
+ * string for every character of the shorter one. Here every character of the
+ * longer string is chained to its next occurrence, and each distinct character
+ * keeps a cursor to its leftmost unmatched occurrence, so every occurrence is
+ * visited once and the first free match in the window is found in constant
+ * time. The picked matches, and therefore the scores, are the same.
+ *
+ * Line deduplication only ever asks whether two lines are within a fixed
+ * distance, isWithin() gives up as soon as the remaining characters can no
+ * longer produce enough matches. Scratch arrays are kept per thread and
+ * stamped instead of cleared, so calls do not allocate.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class JaroWinkler {
+
+    private static final double SCALING_FACTOR = 0.1;
+    private static final double BOOST_THRESHOLD = 0.7;
+    private static final int MAX_PREFIX = 4;
+
+    /**
+     * Keeps the early exit from rejecting pairs that land exactly on the threshold.
+     */
+    private static final double EPSILON = 1e-9;
+
+    private static class Scratch {
+
+        private char[] shorter = new char[0];
+        private char[] longer = new char[0];
+        private char[] matchedShorter = new char[0];
+
+        // Next occurrence of the same character in the longer string, -1 if none
+        private int[] nextOccurrence = new int[0];
+        // Positions of the longer string matched during the call with the current stamp
+        private int[] matchStamps = new int[0];
+
+        // Open addressing table of the longer string's characters, sized to never fill up
+        private char[] tableKeys = new char[0];
+        private int[] tableCursors = new int[0];
+        private int[] tableStamps = new int[0];
+        private int tableMask = 0;
+
+        private int stamp = 0;
+
+        private void prepare(int minLength, int maxLength) {
+            if (shorter.length < minLength) {
+                shorter = new char[minLength * 2];
+                matchedShorter = new char[minLength * 2];
+            }
+
+            if (longer.length < maxLength) {
+                longer = new char[maxLength * 2];
+                nextOccurrence = new int[maxLength * 2];
+                matchStamps = new int[maxLength * 2];
+
+                int tableSize = Integer.highestOneBit(longer.length * 2 - 1) << 1;
+                tableKeys = new char[tableSize];
+                tableCursors = new int[tableSize];
+                tableStamps = new int[tableSize];
+                tableMask = tableSize - 1;
+
+                stamp = 0;
+            }
+
+            if (++stamp == Integer.MAX_VALUE) {// Old stamps could collide once it wraps around
+                Arrays.fill(matchStamps, 0);
+                Arrays.fill(tableStamps, 0);
+                stamp = 1;
+            }
+        }
+
+        /**
+         * @return the slot of the character, or its empty slot if it is not in the table
+         */
+        private int slot(char c) {
+            int slot = (c ^ (c >>> 7)) & tableMask;
+
+            while (tableStamps[slot] == stamp && tableKeys[slot] != c) {
+                slot = (slot + 1) & tableMask;
+            }
+
+            return slot;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The JaroWinkler distance between the two strings, from 0 (equal) to 1.
+     */
+    public static double distance(CharSequence left, CharSequence right) {
+        return 1 - similarity(left, right, 0);
+    }
+
+    /**
+     * Checks whether the distance between the two strings is at most maxDistance.
+     */
+    public static boolean isWithin(CharSequence left, CharSequence right, double maxDistance) {
+        return 1 - similarity(left, right, 1 - maxDistance) <= maxDistance;
+    }
+
+    /**
+     * A quick upper bound check that only looks at the lengths and the common prefix.
+     *
+     * False means isWithin() is false for sure, true means the score has to be
+     * computed. Even with every character of the shorter string matched and no
+     * transpositions, a short line can not get close enough to a much longer one.
+     */
+    public static boolean canBeWithin(CharSequence left, CharSequence right, double maxDistance) {
+        int minLength = Math.min(left.length(), right.length());
+
+        if (minLength == 0) {
+            return left.length() == right.length();
+        }
+
+        return requiredMatches(left, right, commonPrefix(left, right), 1 - maxDistance) <= minLength;
+    }
+
+    /**
+     * @param minSimilarity below this the exact score is not needed, 0 is returned as soon as it can't be reached
+     */
+    private static double similarity(CharSequence left, CharSequence right, double minSimilarity) {
+        int leftLength = left.length();
+        int rightLength = right.length();
+
+        CharSequence first = leftLength > rightLength ? right : left;
+        CharSequence second = leftLength > rightLength ? left : right;
+
+        int minLength = first.length();
+        int maxLength = second.length();
+
+        int prefix = commonPrefix(left, right);
+
+        if (leftLength == rightLength && left.toString().contentEquals(right)) {
+            return 1;
+        }
+
+        if (minLength == 0) {
+            return 0;
+        }
+
+        int requiredMatches = 0;
+        if (minSimilarity > 0) {
+            requiredMatches = requiredMatches(left, right, prefix, minSimilarity);
+
+            if (requiredMatches > minLength) {
+                return 0;
+            }
+        }
+
+        Scratch scratch = SCRATCH.get();
+        scratch.prepare(minLength, maxLength);
+
+        char[] shorter = scratch.shorter;
+        char[] longer = scratch.longer;
+        char[] matchedShorter = scratch.matchedShorter;
+        int[] nextOccurrence = scratch.nextOccurrence;
+        int[] matchStamps = scratch.matchStamps;
+        char[] tableKeys = scratch.tableKeys;
+        int[] tableCursors = scratch.tableCursors;
+        int[] tableStamps = scratch.tableStamps;
+        int stamp = scratch.stamp;
+
+        for (int i = 0; i < minLength; i++) {
+            shorter[i] = first.charAt(i);
+        }
+
+        for (int i = 0; i < maxLength; i++) {
+            longer[i] = second.charAt(i);
+        }
+
+        // Chain the occurrences of every character, the cursors end up on the first ones
+        for (int xi = maxLength - 1; xi >= 0; xi--) {
+            char c = longer[xi];
+            int slot = scratch.slot(c);
+
+            if (tableStamps[slot] == stamp) {
+                nextOccurrence[xi] = tableCursors[slot];
+            } else {
+                tableStamps[slot] = stamp;
+                tableKeys[slot] = c;
+                nextOccurrence[xi] = -1;
+            }
+
+            tableCursors[slot] = xi;
+        }
+
+        int range = Math.max(maxLength / 2 - 1, 0);
+        int matches = 0;
+
+        for (int mi = 0; mi < minLength; mi++) {
+            char c = shorter[mi];
+            int slot = scratch.slot(c);
+
+            if (tableStamps[slot] == stamp) {
+                // Occurrences before the cursor are matched already or left the window for good
+                int xi = tableCursors[slot];
+                int windowStart = mi - range;
+
+                while (xi != -1 && xi < windowStart) {
+                    xi = nextOccurrence[xi];
+                }
+
+                if (xi != -1 && xi <= mi + range) {
+                    matchStamps[xi] = stamp;
+                    matchedShorter[matches++] = c;
+
+                    xi = nextOccurrence[xi];
+                }
+
+                tableCursors[slot] = xi;
+            }
+
+            if (matches + (minLength - mi - 1) < requiredMatches) {
+                return 0;
+            }
+        }
+
+        if (matches == 0) {
+            return 0;
+        }
+
+        // Matched characters out of order between the two strings
+        int halfTranspositions = 0;
+        for (int xi = 0, si = 0; si < matches; xi++) {
+            if (matchStamps[xi] == stamp) {
+                if (longer[xi] != matchedShorter[si]) {
+                    halfTranspositions++;
+                }
+
+                si++;
+            }
+        }
+
+        double m = matches;
+        double jaro = (m / leftLength + m / rightLength + (m - halfTranspositions / 2d) / m) / 3;
+
+        return jaro < BOOST_THRESHOLD ? jaro : jaro + SCALING_FACTOR * prefix * (1 - jaro);
+    }
+
+    /**
+     * The common prefix the Winkler boost is based on, it only depends on the original order.
+     */
+    private static int commonPrefix(CharSequence left, CharSequence right) {
+        int limit = Math.min(MAX_PREFIX, Math.min(left.length(), right.length()));
+
+        int prefix = 0;
+        while (prefix < limit && left.charAt(prefix) == right.charAt(prefix)) {
+            prefix++;
+        }
+
+        return prefix;
+    }
+
+    /**
+     * The fewest matches that could still reach minSimilarity, assuming no transpositions.
+     */
+    private static int requiredMatches(CharSequence left, CharSequence right, int prefix, double minSimilarity) {
+        double boost = SCALING_FACTOR * prefix;
+        double requiredJaro = Math.min((minSimilarity - boost) / (1 - boost), minSimilarity);
+
+        return (int)Math.ceil((3 * requiredJaro - 1) / (1d / left.length() + 1d / right.length()) - EPSILON);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.brlns.livecaptions.Settings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class CaptionStabilizerTest {
+
+    private Settings settings;
+    private List<String> committed;
+    private CaptionStabilizer stabilizer;
+
+    @BeforeEach
+    public void setUp() {
+        settings = new Settings();
+        committed = new ArrayList<>();
+        stabilizer = new CaptionStabilizer(() -> settings, committed::add);
+    }
+
+    @Test
+    public void commitsAGrowingLineOnceWhenItGoesOffScreen() {
+        feed(
+            new String[]{"the quick"},
+            new String[]{"the quick brown"},
+            new String[]{"the quick brown fox"},
+            new String[]{"the quick brown fox", "jumps"}
+        );
+
+        assertEquals(List.of(), committed);
+
+        stabilizer.update(new String[]{"jumps over the lazy dog"});
+
+        assertEquals(List.of("the quick brown fox"), committed);
+    }
+
+    @Test
+    public void commitsLinesInOrderAsTheyScrollOff() {
+        feed(
+            new String[]{"so this is where it begins", "with a quiet little town"},
+            new String[]{"with a quiet little town", "by the side of a river"},
+            new String[]{"by the side of a river", "where nothing ever happened"},
+            new String[]{"where nothing ever happened", "until one rainy night"}
+        );
+
+        assertEquals(List.of("so this is where it begins", "with a quiet little town", "by the side of a river"), committed);
+
+        stabilizer.flush();
+
+        assertEquals(List.of("so this is where it begins", "with a quiet little town", "by the side of a river",
+            "where nothing ever happened", "until one rainy night"), committed);
+    }
+
+    @Test
+    public void commitsOnlyTheLastRevision() {
+        feed(
+            new String[]{"I scream for ice cream"},
+            new String[]{"Ice cream for ice cream"},
+            new String[]{"I scream for ice cream.", "You scream"},
+            new String[]{"You scream, we all scream"}
+        );
+
+        assertEquals(List.of("I scream for ice cream."), committed);
+    }
+
+    @Test
+    public void mergesOcrFlicker() {
+        feed(
+            new String[]{"Hello there, how are you doing"},
+            new String[]{"Hell0 there, how are you doing"},
+            new String[]{"Hello there, how are you doing"},
+            new String[]{"Hello there, h0w are you doing", "fine"},
+            new String[]{"fine, thanks"}
+        );
+
+        assertEquals(List.of("Hello there, h0w are you doing"), committed);
+    }
+
+    @Test
+    public void skipsALineThatComesBackAfterAWrap() {
+        feed(
+            new String[]{"we will meet at the station around"},
+            new String[]{"we will meet at the station", "around noon tomorrow"},
+            new String[]{"around noon tomorrow"}
+        );
+
+        assertEquals(List.of("we will meet at the station"), committed);
+
+        // The box was redrawn after the wrap, the line that already went off screen shows up again
+        feed(
+            new String[]{"we will meet at the statlon", "around noon tomorrow"},
+            new String[]{"around noon tomorrow", "if the train is on time"},
+            new String[]{"if the train is on time", "bring an umbrella"}
+        );
+
+        stabilizer.flush();
+
+        assertEquals(List.of("we will meet at the station", "around noon tomorrow",
+            "if the train is on time", "bring an umbrella"), committed);
+        assertTrue(stabilizer.getStatsSummary().contains("1 duplicates"), stabilizer.getStatsSummary());
+    }
+
+    @Test
+    public void commitsStableLinesEarlyAndKeepsThatVersion() {
+        settings.setCaptionStableFrames(2);
+
+        feed(
+            new String[]{"good morning everyone"},
+            new String[]{"good morning everyone"}
+        );
+
+        // The bottom line is still being typed into
+        assertEquals(List.of(), committed);
+
+        feed(
+            new String[]{"good morning everyone", "welcome"},
+            new String[]{"good morning everyone", "welcome to the show"}
+        );
+
+        assertEquals(List.of("good morning everyone"), committed);
+
+        feed(
+            new String[]{"good morning, everyone", "welcome to the show"},
+            new String[]{"welcome to the show", "today we have"}
+        );
+
+        assertEquals(List.of("good morning everyone", "welcome to the show"), committed);
+        assertTrue(stabilizer.getStatsSummary().contains("1 revised after commit"), stabilizer.getStatsSummary());
+    }
+
+    private void feed(String[]... frames) {
+        for (String[] frame : frames) {
+            stabilizer.update(frame);
+        }
+    }
+}
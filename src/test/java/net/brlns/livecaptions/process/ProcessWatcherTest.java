@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Watches a copy of sleep under a unique name, so other sleep processes on the machine are not picked up.
+ *
+ * @author Gabriel / hstr0100 / vertx010
+ */
+@EnabledOnOs(OS.LINUX)
+public class ProcessWatcherTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    @TempDir
+    Path tempDir;
+
+    private String standInName;
+    private File standIn;
+
+    @BeforeEach
+    public void copyStandIn() throws IOException {
+        File sleep = new File("/bin/sleep");
+        if (!sleep.exists()) {
+            sleep = new File("/usr/bin/sleep");
+        }
+
+        assumeTrue(sleep.exists(), "sleep is not installed");
+
+        standInName = "LiveCaptionsStandIn" + System.nanoTime();
+        standIn = Files.copy(sleep.toPath(), tempDir.resolve(standInName), StandardCopyOption.COPY_ATTRIBUTES).toFile();
+        assertTrue(standIn.setExecutable(true));
+    }
+
+    @Test
+    public void watchesTheProcessUntilItExits() throws Exception {
+        Process process = new ProcessBuilder(standIn.getAbsolutePath(), "60").start();
+
+        try {
+            ProcessWatcher watcher = new ProcessWatcher(() -> standInName, Runnable::run, (e) -> fail(e));
+
+            waitFor(watcher::isRunning, "the stand-in was not found");
+            assertEquals(process.pid(), watcher.getWatchedPid());
+            assertTrue(watcher.hasScanned());
+
+            process.destroy();
+            assertTrue(process.waitFor(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+            // onExit() clears the handle, no rescan needed to notice
+            waitFor(() -> watcher.getWatchedPid() == -1, "the exit was not seen");
+            assertFalse(watcher.isRunning());
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void findsTheProcessAgainAfterARestart() throws Exception {
+        Process first = new ProcessBuilder(standIn.getAbsolutePath(), "60").start();
+        Process second = null;
+
+        try {
+            ProcessWatcher watcher = new ProcessWatcher(() -> standInName, Runnable::run, (e) -> fail(e));
+
+            waitFor(watcher::isRunning, "the stand-in was not found");
+
+            first.destroy();
+            assertTrue(first.waitFor(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            waitFor(() -> watcher.getWatchedPid() == -1, "the exit was not seen");
+
+            second = new ProcessBuilder(standIn.getAbsolutePath(), "60").start();
+
+            waitFor(watcher::isRunning, "the restarted stand-in was not found");
+            assertEquals(second.pid(), watcher.getWatchedPid());
+        } finally {
+            first.destroyForcibly();
+
+            if (second != null) {
+                second.destroyForcibly();
+            }
+        }
+    }
+
+    @Test
+    public void reportsMissingProcessesAsNotRunning() {
+        ProcessWatcher watcher = new ProcessWatcher(() -> standInName, Runnable::run, (e) -> fail(e));
+
+        assertFalse(watcher.isRunning());
+        assertTrue(watcher.hasScanned());
+        assertEquals(-1, watcher.getWatchedPid());
+    }
+
+    private static void waitFor(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail(message);
+            }
+
+            Thread.sleep(20);
+        }
+    }
+}
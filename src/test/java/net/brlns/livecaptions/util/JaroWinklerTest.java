@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2024 hstr0100
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.brlns.livecaptions.util;
+
+import java.util.Random;
+import org.apache.commons.text.similarity.JaroWinklerDistance;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Gabriel / hstr0100 / vertx010
+ */
+public class JaroWinklerTest {
+
+    private static final double MAX_DISTANCE = 0.20;
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789 .,'?";
+
+    @Test
+    public void matchesCommonsText() {
+        JaroWinklerDistance reference = new JaroWinklerDistance();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            String left = randomLine(random);
+            String right = misread(random, left);
+
+            assertEquals(reference.apply(left, right), JaroWinkler.distance(left, right), 1e-9, left + " / " + right);
+            assertEquals(reference.apply(left, right) <= MAX_DISTANCE, JaroWinkler.isWithin(left, right, MAX_DISTANCE),
+                left + " / " + right);
+        }
+    }
+
+    @Test
+    public void prefilterKeepsMisreadWords() {
+        // No whole word in common, yet well within the distance
+        assertTrue(JaroWinkler.isWithin("Hello", "Hell0", MAX_DISTANCE));
+        assertTrue(JaroWinkler.canBeWithin("Hello", "Hell0", MAX_DISTANCE));
+
+        assertTrue(JaroWinkler.isWithin("yeah.", "yeab", MAX_DISTANCE));
+        assertTrue(JaroWinkler.canBeWithin("yeah.", "yeab", MAX_DISTANCE));
+    }
+
+    @Test
+    public void prefilterRejectsLinesOfVeryDifferentLengths() {
+        assertFalse(JaroWinkler.canBeWithin("ok", "the quick brown fox jumps over the lazy dog", MAX_DISTANCE));
+        assertFalse(JaroWinkler.canBeWithin("", "a", MAX_DISTANCE));
+        assertTrue(JaroWinkler.canBeWithin("", "", MAX_DISTANCE));
+    }
+
+    @Test
+    public void prefilterNeverRejectsAMatch() {
+        Random random = new Random(7);
+
+        int matches = 0;
+        int rejected = 0;
+
+        for (int i = 0; i < 200_000; i++) {
+            String left = randomLine(random);
+            String right = random.nextInt(4) == 0 ? randomLine(random) : misread(random, left);
+
+            boolean within = JaroWinkler.isWithin(left, right, MAX_DISTANCE);
+            boolean candidate = JaroWinkler.canBeWithin(left, right, MAX_DISTANCE);
+
+            if (within) {
+                matches++;
+                assertTrue(candidate, left + " / " + right);
+            } else if (!candidate) {
+                rejected++;
+            }
+        }
+
+        // Make sure both sides were actually exercised
+        assertTrue(matches > 10_000, "matches: " + matches);
+        assertTrue(rejected > 1_000, "rejected: " + rejected);
+    }
+
+    private static String randomLine(Random random) {
+        int length = 1 + random.nextInt(random.nextBoolean() ? 8 : 60);
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * A few OCR style errors: swapped, dropped and extra characters, or a cut off end.
+     */
+    private static String misread(Random random, String line) {
+        StringBuilder builder = new StringBuilder(line);
+
+        int edits = random.nextInt(4);
+        for (int i = 0; i < edits && builder.length() > 0; i++) {
+            int position = random.nextInt(builder.length());
+            char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.setCharAt(position, c);
+                    break;
+                case 1:
+                    builder.deleteCharAt(position);
+                    break;
+                case 2:
+                    builder.insert(position, c);
+                    break;
+                default:
+                    builder.setLength(position);
+                    break;
+            }
+        }
+
+        return builder.toString();
+    }
+}